@@ -28,7 +28,10 @@ import java.util.Set;
 import javax.servlet.http.HttpServletRequest;
 import javax.ws.rs.core.UriBuilder;
 import org.apache.guacamole.auth.oauth2.conf.ConfigurationService;
+import org.apache.guacamole.auth.oauth2.token.GroupMembershipService;
+import org.apache.guacamole.auth.oauth2.token.HostResolverService;
 import org.apache.guacamole.auth.oauth2.token.StateService;
+import org.apache.guacamole.auth.oauth2.token.TicketService;
 import org.apache.guacamole.auth.oauth2.token.TokenValidationService;
 import org.apache.guacamole.GuacamoleException;
 import org.apache.guacamole.auth.sso.SSOAuthenticationProviderService;
@@ -70,6 +73,24 @@ public class AuthenticationProviderService implements SSOAuthenticationProviderS
     @Inject
     private TokenValidationService tokenService;
 
+    /**
+     * Service for retrieving group memberships from the groups endpoint.
+     */
+    @Inject
+    private GroupMembershipService groupService;
+
+    /**
+     * Service for resolving OAuth2 provider hostnames.
+     */
+    @Inject
+    private HostResolverService resolverService;
+
+    /**
+     * Service for verifying re-authentication tickets.
+     */
+    @Inject
+    private TicketService ticketService;
+
     /**
      * Provider for AuthenticatedUser objects.
      */
@@ -87,7 +108,18 @@ public class AuthenticationProviderService implements SSOAuthenticationProviderS
         if (request != null) {
             String authorizationCode = request.getParameter("code");
 
-            if (authorizationCode != null) {
+            // Returning users may present a ticket which can be verified
+            // without contacting the OAuth2 provider
+            String ticket = OAuth2Resource.getTicket(request);
+            if (authorizationCode == null && ticket != null && ticketService.isEnabled()) {
+                OAuth2UserInfo userInfo = ticketService.verify(ticket);
+                if (userInfo != null) {
+                    username = userInfo.getUsername();
+                    groups = userInfo.getGroups();
+                }
+            }
+
+            else if (authorizationCode != null) {
                 try {
                     // Authorization kodu ile access token al
                     String accessToken = tokenService.exchangeCodeForToken(authorizationCode);
@@ -139,7 +171,8 @@ public class AuthenticationProviderService implements SSOAuthenticationProviderS
 
     @Override
     public void shutdown() {
-        // Nothing to clean up
+        groupService.shutdown();
+        resolverService.shutdown();
     }
 
 }
@@ -20,7 +20,6 @@
 package org.apache.guacamole.auth.oauth2;
 
 import org.apache.guacamole.auth.sso.SSOAuthenticationProvider;
-import org.apache.guacamole.auth.sso.SSOResource;
 
 /**
  * Guacamole authentication backend which authenticates users using an
@@ -35,7 +34,7 @@ public class OAuth2AuthenticationProvider extends SSOAuthenticationProvider {
      * against an OAuth2 service.
      */
     public OAuth2AuthenticationProvider() {
-        super(AuthenticationProviderService.class, SSOResource.class,
+        super(AuthenticationProviderService.class, OAuth2Resource.class,
                 new OAuth2AuthenticationProviderModule());
     }
 
@@ -20,7 +20,11 @@ package org.apache.guacamole.auth.oauth2;
 
 import com.google.inject.AbstractModule;
 import org.apache.guacamole.auth.oauth2.conf.ConfigurationService;
+import org.apache.guacamole.auth.oauth2.token.ClientAssertionService;
+import org.apache.guacamole.auth.oauth2.token.GroupMembershipService;
+import org.apache.guacamole.auth.oauth2.token.HostResolverService;
 import org.apache.guacamole.auth.oauth2.token.StateService;
+import org.apache.guacamole.auth.oauth2.token.TicketService;
 import org.apache.guacamole.auth.oauth2.token.TokenValidationService;
 
 /**
@@ -30,8 +34,12 @@ public class OAuth2AuthenticationProviderModule extends AbstractModule {
 
     @Override
     protected void configure() {
+        bind(ClientAssertionService.class);
         bind(ConfigurationService.class);
+        bind(GroupMembershipService.class);
+        bind(HostResolverService.class);
         bind(StateService.class);
+        bind(TicketService.class);
         bind(TokenValidationService.class);
     }
 
@@ -0,0 +1,197 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.auth.oauth2;
+
+import com.google.inject.Inject;
+import java.net.URI;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.DELETE;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.Response;
+import org.apache.guacamole.GuacamoleClientException;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.GuacamoleServerException;
+import org.apache.guacamole.auth.oauth2.token.StateService;
+import org.apache.guacamole.auth.oauth2.token.TicketService;
+import org.apache.guacamole.auth.oauth2.token.TokenValidationService;
+import org.apache.guacamole.auth.sso.SSOResource;
+
+/**
+ * REST API resource that extends the generic SSO resource with an OAuth2
+ * callback that issues re-authentication tickets. When
+ * "oauth2-redirect-uri" points at this callback, the authorization code is
+ * exchanged here, a signed ticket is stored within a cookie, and the user is
+ * redirected back to Guacamole, where that ticket is verified locally.
+ */
+public class OAuth2Resource extends SSOResource {
+
+    /**
+     * Service for validating and generating unique state values.
+     */
+    @Inject
+    private StateService stateService;
+
+    /**
+     * Service for exchanging authorization codes and retrieving user info.
+     */
+    @Inject
+    private TokenValidationService tokenService;
+
+    /**
+     * Service for issuing, verifying and revoking re-authentication tickets.
+     */
+    @Inject
+    private TicketService ticketService;
+
+    /**
+     * Returns the value of the re-authentication ticket cookie within the
+     * given request, if any.
+     *
+     * @param request
+     *     The HTTP request to read the cookie from.
+     *
+     * @return
+     *     The value of the re-authentication ticket cookie, or null if the
+     *     request has no such cookie.
+     */
+    public static String getTicket(HttpServletRequest request) {
+
+        Cookie[] cookies = request.getCookies();
+        if (cookies == null)
+            return null;
+
+        for (Cookie cookie : cookies) {
+            if (TicketService.TICKET_COOKIE_NAME.equals(cookie.getName()))
+                return cookie.getValue();
+        }
+
+        return null;
+
+    }
+
+    /**
+     * Returns a Set-Cookie header value which stores the given ticket for the
+     * given number of seconds, scoped to the Guacamole web application.
+     *
+     * @param request
+     *     The HTTP request being responded to.
+     *
+     * @param ticket
+     *     The ticket to store, or an empty string to clear the cookie.
+     *
+     * @param maxAge
+     *     The number of seconds the cookie should be retained.
+     *
+     * @return
+     *     A Set-Cookie header value storing the given ticket.
+     */
+    private String getTicketCookie(HttpServletRequest request, String ticket,
+            int maxAge) {
+        return TicketService.TICKET_COOKIE_NAME + "=" + ticket
+                + "; Path=" + request.getContextPath() + "/"
+                + "; Max-Age=" + maxAge
+                + "; HttpOnly; SameSite=Lax"
+                + (request.isSecure() ? "; Secure" : "");
+    }
+
+    /**
+     * Handles the redirect from the OAuth2 provider, exchanging the received
+     * authorization code, issuing a re-authentication ticket for the
+     * resulting user and redirecting back to Guacamole.
+     *
+     * @param code
+     *     The authorization code received from the OAuth2 provider.
+     *
+     * @param state
+     *     The state value generated when the user was redirected to the
+     *     OAuth2 provider.
+     *
+     * @param request
+     *     The HTTP request received from the OAuth2 provider's redirect.
+     *
+     * @return
+     *     An HTTP response redirecting the user back to Guacamole.
+     *
+     * @throws GuacamoleException
+     *     If re-authentication tickets are disabled, the state is invalid,
+     *     or the user cannot be authenticated by the OAuth2 provider.
+     */
+    @GET
+    @Path("callback")
+    public Response handleCallback(@QueryParam("code") String code,
+            @QueryParam("state") String state,
+            @Context HttpServletRequest request) throws GuacamoleException {
+
+        if (!ticketService.isEnabled())
+            throw new GuacamoleClientException("Re-authentication tickets are not enabled.");
+
+        if (code == null || state == null || !stateService.isValid(state))
+            throw new GuacamoleClientException("Invalid OAuth2 callback.");
+
+        OAuth2UserInfo userInfo;
+        try {
+            String accessToken = tokenService.exchangeCodeForToken(code);
+            userInfo = tokenService.getUserInfoFromToken(accessToken);
+        }
+        catch (Exception e) {
+            throw new GuacamoleServerException("Failed to validate token or fetch user info.", e);
+        }
+
+        String ticket = ticketService.issue(userInfo);
+        return Response.seeOther(URI.create(request.getContextPath() + "/"))
+                .header("Set-Cookie", getTicketCookie(request, ticket,
+                        ticketService.getValiditySeconds()))
+                .build();
+
+    }
+
+    /**
+     * Revokes the re-authentication ticket within the request, if any, and
+     * clears the cookie containing that ticket.
+     *
+     * @param request
+     *     The HTTP request containing the ticket to revoke.
+     *
+     * @return
+     *     An empty HTTP response clearing the ticket cookie.
+     *
+     * @throws GuacamoleException
+     *     If the ticket signature cannot be verified.
+     */
+    @DELETE
+    @Path("ticket")
+    public Response revokeTicket(@Context HttpServletRequest request)
+            throws GuacamoleException {
+
+        String ticket = getTicket(request);
+        if (ticket != null)
+            ticketService.revoke(ticket);
+
+        return Response.noContent()
+                .header("Set-Cookie", getTicketCookie(request, "", 0))
+                .build();
+
+    }
+
+}
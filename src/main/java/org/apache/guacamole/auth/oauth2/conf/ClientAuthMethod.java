@@ -0,0 +1,43 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.auth.oauth2.conf;
+
+import org.apache.guacamole.properties.EnumGuacamoleProperty.PropertyValue;
+
+/**
+ * All methods by which the client may authenticate against the token
+ * endpoint, as accepted by the "oauth2-client-auth-method" property.
+ */
+public enum ClientAuthMethod {
+
+    /**
+     * The client secret is included within the body of the token request.
+     */
+    @PropertyValue("client_secret_post")
+    CLIENT_SECRET_POST,
+
+    /**
+     * A client assertion signed with the configured private key is included
+     * within the body of the token request.
+     */
+    @PropertyValue("private_key_jwt")
+    PRIVATE_KEY_JWT
+
+}
@@ -20,9 +20,12 @@
 package org.apache.guacamole.auth.oauth2.conf;
 
 import com.google.inject.Inject;
+import java.io.File;
 import java.net.URI;
 import org.apache.guacamole.GuacamoleException;
 import org.apache.guacamole.environment.Environment;
+import org.apache.guacamole.properties.EnumGuacamoleProperty;
+import org.apache.guacamole.properties.FileGuacamoleProperty;
 import org.apache.guacamole.properties.IntegerGuacamoleProperty;
 import org.apache.guacamole.properties.StringGuacamoleProperty;
 import org.apache.guacamole.properties.URIGuacamoleProperty;
@@ -36,9 +39,19 @@ public class ConfigurationService {
     private static final String DEFAULT_USERNAME_CLAIM_TYPE = "username";
     private static final String DEFAULT_GROUPS_CLAIM_TYPE = "groups";
     private static final String DEFAULT_SCOPE = "email profile";
+    private static final ClientAuthMethod DEFAULT_CLIENT_AUTH_METHOD = ClientAuthMethod.CLIENT_SECRET_POST;
     private static final int DEFAULT_ALLOWED_CLOCK_SKEW = 30; // seconds
     private static final int DEFAULT_MAX_TOKEN_VALIDITY = 300; // minutes
     private static final int DEFAULT_MAX_STATE_VALIDITY = 10;  // minutes
+    private static final String DEFAULT_GROUPS_ENDPOINT_ATTRIBUTE = "displayName";
+    private static final String DEFAULT_GROUPS_ENDPOINT_NEXT_LINK = "@odata.nextLink";
+    private static final int DEFAULT_GROUPS_ENDPOINT_MAX_CONCURRENCY = 4;
+    private static final int DEFAULT_GROUPS_ENDPOINT_TIMEOUT = 10; // seconds
+    private static final int DEFAULT_GROUPS_CACHE_VALIDITY = 5; // minutes
+    private static final int DEFAULT_TICKET_VALIDITY = 0; // minutes, disabled
+    private static final int DEFAULT_DNS_CACHE_TTL = 30; // seconds
+    private static final int DEFAULT_DNS_CACHE_STALE_TTL = 300; // seconds
+    private static final int DEFAULT_DNS_CACHE_NEGATIVE_TTL = 5; // seconds
 
     // OAuth2 configuration keys
 // OAuth2 URI property definitions
@@ -74,6 +87,14 @@ public class ConfigurationService {
         }
     };
 
+    private static final URIGuacamoleProperty OAUTH2_GROUPS_ENDPOINT
+            = new URIGuacamoleProperty() {
+        @Override
+        public String getName() {
+            return "oauth2-groups-endpoint";
+        }
+    };
+
 // OAuth2 string property definitions
     private static final StringGuacamoleProperty OAUTH2_CLIENT_ID
             = new StringGuacamoleProperty() {
@@ -91,6 +112,22 @@ public class ConfigurationService {
         }
     };
 
+    private static final EnumGuacamoleProperty<ClientAuthMethod> OAUTH2_CLIENT_AUTH_METHOD
+            = new EnumGuacamoleProperty<ClientAuthMethod>(ClientAuthMethod.class) {
+        @Override
+        public String getName() {
+            return "oauth2-client-auth-method";
+        }
+    };
+
+    private static final FileGuacamoleProperty OAUTH2_CLIENT_PRIVATE_KEY
+            = new FileGuacamoleProperty() {
+        @Override
+        public String getName() {
+            return "oauth2-client-private-key";
+        }
+    };
+
     private static final StringGuacamoleProperty OAUTH2_ISSUER
             = new StringGuacamoleProperty() {
         @Override
@@ -123,6 +160,94 @@ public class ConfigurationService {
         }
     };
 
+    private static final StringGuacamoleProperty OAUTH2_TICKET_SECRET
+            = new StringGuacamoleProperty() {
+        @Override
+        public String getName() {
+            return "oauth2-ticket-secret";
+        }
+    };
+
+    private static final StringGuacamoleProperty OAUTH2_GROUPS_ENDPOINT_ATTRIBUTE
+            = new StringGuacamoleProperty() {
+        @Override
+        public String getName() {
+            return "oauth2-groups-endpoint-attribute";
+        }
+    };
+
+    private static final StringGuacamoleProperty OAUTH2_GROUPS_ENDPOINT_NEXT_LINK
+            = new StringGuacamoleProperty() {
+        @Override
+        public String getName() {
+            return "oauth2-groups-endpoint-next-link";
+        }
+    };
+
+    private static final IntegerGuacamoleProperty OAUTH2_GROUPS_ENDPOINT_PAGE_SIZE
+            = new IntegerGuacamoleProperty() {
+        @Override
+        public String getName() {
+            return "oauth2-groups-endpoint-page-size";
+        }
+    };
+
+    private static final IntegerGuacamoleProperty OAUTH2_GROUPS_ENDPOINT_MAX_CONCURRENCY
+            = new IntegerGuacamoleProperty() {
+        @Override
+        public String getName() {
+            return "oauth2-groups-endpoint-max-concurrency";
+        }
+    };
+
+    private static final IntegerGuacamoleProperty OAUTH2_GROUPS_ENDPOINT_TIMEOUT
+            = new IntegerGuacamoleProperty() {
+        @Override
+        public String getName() {
+            return "oauth2-groups-endpoint-timeout";
+        }
+    };
+
+    private static final IntegerGuacamoleProperty OAUTH2_GROUPS_CACHE_VALIDITY
+            = new IntegerGuacamoleProperty() {
+        @Override
+        public String getName() {
+            return "oauth2-groups-cache-validity";
+        }
+    };
+
+    private static final IntegerGuacamoleProperty OAUTH2_TICKET_VALIDITY
+            = new IntegerGuacamoleProperty() {
+        @Override
+        public String getName() {
+            return "oauth2-ticket-validity";
+        }
+    };
+
+    private static final IntegerGuacamoleProperty OAUTH2_DNS_CACHE_TTL
+            = new IntegerGuacamoleProperty() {
+        @Override
+        public String getName() {
+            return "oauth2-dns-cache-ttl";
+        }
+    };
+
+    private static final IntegerGuacamoleProperty OAUTH2_DNS_CACHE_STALE_TTL
+            = new IntegerGuacamoleProperty() {
+        @Override
+        public String getName() {
+            return "oauth2-dns-cache-stale-ttl";
+        }
+    };
+
+    private static final IntegerGuacamoleProperty OAUTH2_DNS_CACHE_NEGATIVE_TTL
+            = new IntegerGuacamoleProperty() {
+        @Override
+        public String getName() {
+            return "oauth2-dns-cache-negative-ttl";
+        }
+    };
+
     private static final IntegerGuacamoleProperty OAUTH2_MAX_STATE_VALIDITY
             = new IntegerGuacamoleProperty() {
         @Override
@@ -150,6 +275,10 @@ public class ConfigurationService {
         return environment.getRequiredProperty(OAUTH2_USER_INFO_ENDPOINT);
     }
 
+    public URI getGroupsEndpoint() throws GuacamoleException {
+        return environment.getProperty(OAUTH2_GROUPS_ENDPOINT);
+    }
+
     public URI getRedirectURI() throws GuacamoleException {
         return environment.getRequiredProperty(OAUTH2_REDIRECT_URI);
     }
@@ -163,6 +292,14 @@ public class ConfigurationService {
         return environment.getRequiredProperty(OAUTH2_CLIENT_SECRET);
     }
 
+    public ClientAuthMethod getClientAuthMethod() throws GuacamoleException {
+        return environment.getProperty(OAUTH2_CLIENT_AUTH_METHOD, DEFAULT_CLIENT_AUTH_METHOD);
+    }
+
+    public File getClientPrivateKeyFile() throws GuacamoleException {
+        return environment.getRequiredProperty(OAUTH2_CLIENT_PRIVATE_KEY);
+    }
+
     // Token verification and claim configuration
     public String getIssuer() throws GuacamoleException {
         return environment.getRequiredProperty(OAUTH2_ISSUER);
@@ -176,6 +313,52 @@ public class ConfigurationService {
         return environment.getProperty(OAUTH2_GROUPS_CLAIM_TYPE, DEFAULT_GROUPS_CLAIM_TYPE);
     }
 
+    public String getGroupsEndpointAttribute() throws GuacamoleException {
+        return environment.getProperty(OAUTH2_GROUPS_ENDPOINT_ATTRIBUTE, DEFAULT_GROUPS_ENDPOINT_ATTRIBUTE);
+    }
+
+    public String getGroupsEndpointNextLink() throws GuacamoleException {
+        return environment.getProperty(OAUTH2_GROUPS_ENDPOINT_NEXT_LINK, DEFAULT_GROUPS_ENDPOINT_NEXT_LINK);
+    }
+
+    public Integer getGroupsEndpointPageSize() throws GuacamoleException {
+        return environment.getProperty(OAUTH2_GROUPS_ENDPOINT_PAGE_SIZE);
+    }
+
+    public int getGroupsEndpointMaxConcurrency() throws GuacamoleException {
+        return environment.getProperty(OAUTH2_GROUPS_ENDPOINT_MAX_CONCURRENCY, DEFAULT_GROUPS_ENDPOINT_MAX_CONCURRENCY);
+    }
+
+    public int getGroupsEndpointTimeout() throws GuacamoleException {
+        return environment.getProperty(OAUTH2_GROUPS_ENDPOINT_TIMEOUT, DEFAULT_GROUPS_ENDPOINT_TIMEOUT);
+    }
+
+    public int getGroupsCacheValidity() throws GuacamoleException {
+        return environment.getProperty(OAUTH2_GROUPS_CACHE_VALIDITY, DEFAULT_GROUPS_CACHE_VALIDITY);
+    }
+
+    // Re-authentication ticket configuration
+    public int getTicketValidity() throws GuacamoleException {
+        return environment.getProperty(OAUTH2_TICKET_VALIDITY, DEFAULT_TICKET_VALIDITY);
+    }
+
+    public String getTicketSecret() throws GuacamoleException {
+        return environment.getProperty(OAUTH2_TICKET_SECRET);
+    }
+
+    // OAuth2 provider DNS cache configuration
+    public int getDnsCacheTTL() throws GuacamoleException {
+        return environment.getProperty(OAUTH2_DNS_CACHE_TTL, DEFAULT_DNS_CACHE_TTL);
+    }
+
+    public int getDnsCacheStaleTTL() throws GuacamoleException {
+        return environment.getProperty(OAUTH2_DNS_CACHE_STALE_TTL, DEFAULT_DNS_CACHE_STALE_TTL);
+    }
+
+    public int getDnsCacheNegativeTTL() throws GuacamoleException {
+        return environment.getProperty(OAUTH2_DNS_CACHE_NEGATIVE_TTL, DEFAULT_DNS_CACHE_NEGATIVE_TTL);
+    }
+
     public String getScope() throws GuacamoleException {
         return environment.getProperty(OAUTH2_SCOPE, DEFAULT_SCOPE);
     }
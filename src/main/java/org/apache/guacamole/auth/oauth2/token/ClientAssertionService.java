@@ -0,0 +1,340 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.auth.oauth2.token;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.Key;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.GuacamoleServerException;
+import org.apache.guacamole.auth.oauth2.conf.ConfigurationService;
+import org.jose4j.jca.ProviderContext;
+import org.jose4j.jwa.AlgorithmFactoryFactory;
+import org.jose4j.jwa.CryptoPrimitive;
+import org.jose4j.jwk.JsonWebKey;
+import org.jose4j.jwk.PublicJsonWebKey;
+import org.jose4j.jws.AlgorithmIdentifiers;
+import org.jose4j.jws.JsonWebSignatureAlgorithm;
+import org.jose4j.lang.JoseException;
+
+/**
+ * Service for generating signed client assertions for the "private_key_jwt"
+ * client authentication method (RFC 7523). The signing key, JWS header and
+ * static claims are prepared once for each distinct configuration, such that
+ * generating an assertion for each login requires only serializing the
+ * per-assertion claims and computing the signature.
+ */
+@Singleton
+public class ClientAssertionService {
+
+    /**
+     * The value of the "client_assertion_type" parameter which must
+     * accompany each client assertion.
+     */
+    public static final String CLIENT_ASSERTION_TYPE =
+            "urn:ietf:params:oauth:client-assertion-type:jwt-bearer";
+
+    /**
+     * The number of seconds that each generated assertion remains valid.
+     */
+    private static final long ASSERTION_VALIDITY = 60;
+
+    /**
+     * The minimum number of milliseconds between checks for changes to the
+     * configuration from which signing state was prepared.
+     */
+    private static final long SNAPSHOT_CHECK_INTERVAL = 5000;
+
+    /**
+     * Provides access to configured OAuth2 settings.
+     */
+    @Inject
+    private ConfigurationService confService;
+
+    /**
+     * Cryptographically-secure random number generator for generating the
+     * unique identifier of each assertion.
+     */
+    private final SecureRandom random = new SecureRandom();
+
+    /**
+     * Encoder for the URL-safe, unpadded Base64 segments of each assertion.
+     */
+    private final Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+
+    /**
+     * Mapper for serializing the JWS header and static claims.
+     */
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    /**
+     * The JCA provider context used when signing, which selects the default
+     * providers.
+     */
+    private final ProviderContext providerContext = new ProviderContext();
+
+    /**
+     * The signing state prepared for the most recently observed
+     * configuration, or null if no assertion has yet been generated.
+     */
+    private volatile PreparedSigner signer;
+
+    /**
+     * Signing key, algorithm and pre-serialized assertion parts derived from
+     * a single snapshot of the relevant configuration.
+     */
+    private static class PreparedSigner {
+
+        /**
+         * String uniquely identifying the configuration from which this
+         * PreparedSigner was derived.
+         */
+        private final String snapshot;
+
+        /**
+         * The private key used to sign assertions.
+         */
+        private final Key key;
+
+        /**
+         * The JWS algorithm used to sign assertions.
+         */
+        private final JsonWebSignatureAlgorithm algorithm;
+
+        /**
+         * The Base64url-encoded JWS header, followed by the "." separating
+         * that header from the payload.
+         */
+        private final String encodedHeader;
+
+        /**
+         * The JSON serialization of the static claims, lacking the closing
+         * brace and followed by a trailing comma, such that the
+         * per-assertion claims may be directly appended.
+         */
+        private final String claimsPrefix;
+
+        /**
+         * The timestamp after which the configuration should next be checked
+         * for changes. Until this time, this PreparedSigner is used without
+         * consulting the configuration at all.
+         */
+        private volatile long checkAfter;
+
+        /**
+         * Creates a new PreparedSigner with the given key, algorithm and
+         * pre-serialized assertion parts.
+         *
+         * @param snapshot
+         *     String uniquely identifying the configuration from which this
+         *     PreparedSigner was derived.
+         *
+         * @param key
+         *     The private key used to sign assertions.
+         *
+         * @param algorithm
+         *     The JWS algorithm used to sign assertions.
+         *
+         * @param encodedHeader
+         *     The Base64url-encoded JWS header, followed by ".".
+         *
+         * @param claimsPrefix
+         *     The JSON serialization of the static claims, lacking the
+         *     closing brace and followed by a trailing comma.
+         */
+        public PreparedSigner(String snapshot, Key key,
+                JsonWebSignatureAlgorithm algorithm, String encodedHeader,
+                String claimsPrefix) {
+            this.snapshot = snapshot;
+            this.key = key;
+            this.algorithm = algorithm;
+            this.encodedHeader = encodedHeader;
+            this.claimsPrefix = claimsPrefix;
+            this.checkAfter = System.currentTimeMillis() + SNAPSHOT_CHECK_INTERVAL;
+        }
+
+    }
+
+    /**
+     * Returns a string uniquely identifying the current state of all
+     * configuration affecting generated assertions, including the
+     * modification time of the private key file.
+     *
+     * @return
+     *     A string uniquely identifying the current relevant configuration.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    private String getSnapshot() throws GuacamoleException {
+        File keyFile = confService.getClientPrivateKeyFile();
+        return keyFile + "\n" + keyFile.lastModified()
+                + "\n" + confService.getClientID()
+                + "\n" + confService.getTokenEndpoint();
+    }
+
+    /**
+     * Loads the configured private key and prepares the JWS header and
+     * static claims for the given configuration snapshot.
+     *
+     * @param snapshot
+     *     String uniquely identifying the configuration being prepared.
+     *
+     * @return
+     *     A new PreparedSigner for the given configuration snapshot.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed, or the configured private
+     *     key cannot be read or is not suitable for signing.
+     */
+    private PreparedSigner prepare(String snapshot) throws GuacamoleException {
+
+        File keyFile = confService.getClientPrivateKeyFile();
+
+        try {
+
+            // Read private key, which must be a JWK containing private parts
+            String json = new String(Files.readAllBytes(keyFile.toPath()), StandardCharsets.UTF_8);
+            JsonWebKey jwk = JsonWebKey.Factory.newJwk(json);
+            if (!(jwk instanceof PublicJsonWebKey) || ((PublicJsonWebKey) jwk).getPrivateKey() == null)
+                throw new GuacamoleServerException("Client private key \""
+                        + keyFile + "\" does not contain a private key.");
+
+            Key key = ((PublicJsonWebKey) jwk).getPrivateKey();
+
+            // Use the algorithm declared by the key, if any
+            String alg = jwk.getAlgorithm() != null
+                    ? jwk.getAlgorithm() : AlgorithmIdentifiers.RSA_USING_SHA256;
+            JsonWebSignatureAlgorithm algorithm = AlgorithmFactoryFactory.getInstance()
+                    .getJwsAlgorithmFactory().getAlgorithm(alg);
+            algorithm.validateSigningKey(key);
+
+            // Pre-serialize header
+            Map<String, Object> header = new LinkedHashMap<>();
+            header.put("alg", alg);
+            header.put("typ", "JWT");
+            if (jwk.getKeyId() != null)
+                header.put("kid", jwk.getKeyId());
+            String encodedHeader = encoder.encodeToString(mapper.writeValueAsBytes(header)) + ".";
+
+            // Pre-serialize static claims, leaving the object open
+            Map<String, Object> claims = new LinkedHashMap<>();
+            claims.put("iss", confService.getClientID());
+            claims.put("sub", confService.getClientID());
+            claims.put("aud", confService.getTokenEndpoint().toString());
+            String serialized = mapper.writeValueAsString(claims);
+            String claimsPrefix = serialized.substring(0, serialized.length() - 1) + ",";
+
+            return new PreparedSigner(snapshot, key, algorithm, encodedHeader, claimsPrefix);
+
+        }
+        catch (IOException e) {
+            throw new GuacamoleServerException("Unable to read client private key \""
+                    + keyFile + "\".", e);
+        }
+        catch (JoseException e) {
+            throw new GuacamoleServerException("Client private key \""
+                    + keyFile + "\" is not valid for signing.", e);
+        }
+
+    }
+
+    /**
+     * Returns the signing state for the current configuration. The
+     * configuration is checked for changes at most once every
+     * SNAPSHOT_CHECK_INTERVAL milliseconds, and new signing state is prepared
+     * only if the configuration has actually changed.
+     *
+     * @return
+     *     The signing state for the current configuration.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed, or the configured private
+     *     key cannot be read or is not suitable for signing.
+     */
+    private PreparedSigner getSigner() throws GuacamoleException {
+
+        // Reuse existing signing state without checking for changes if the
+        // configuration was checked recently
+        long currentTime = System.currentTimeMillis();
+        PreparedSigner current = signer;
+        if (current != null && currentTime < current.checkAfter)
+            return current;
+
+        String snapshot = getSnapshot();
+        if (current != null && current.snapshot.equals(snapshot)) {
+            current.checkAfter = currentTime + SNAPSHOT_CHECK_INTERVAL;
+            return current;
+        }
+
+        current = prepare(snapshot);
+        signer = current;
+        return current;
+
+    }
+
+    /**
+     * Generates a new, signed client assertion for authenticating this client
+     * against the token endpoint.
+     *
+     * @return
+     *     A new client assertion in JWS compact serialization.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed, or the assertion cannot be
+     *     signed.
+     */
+    public String generate() throws GuacamoleException {
+
+        PreparedSigner current = getSigner();
+
+        // Only the unique identifier and timestamps vary between assertions
+        long now = System.currentTimeMillis() / 1000;
+        String claims = current.claimsPrefix
+                + "\"jti\":\"" + new BigInteger(130, random).toString(32) + "\""
+                + ",\"iat\":" + now
+                + ",\"exp\":" + (now + ASSERTION_VALIDITY) + "}";
+
+        String signingInput = current.encodedHeader
+                + encoder.encodeToString(claims.getBytes(StandardCharsets.UTF_8));
+
+        try {
+            CryptoPrimitive primitive = current.algorithm.prepareForSign(current.key, providerContext);
+            byte[] signature = current.algorithm.sign(primitive,
+                    signingInput.getBytes(StandardCharsets.US_ASCII));
+            return signingInput + "." + encoder.encodeToString(signature);
+        }
+        catch (JoseException e) {
+            throw new GuacamoleServerException("Unable to sign client assertion.", e);
+        }
+
+    }
+
+}
@@ -0,0 +1,230 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.auth.oauth2.token;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread-safe Map whose entries each expire at their own timestamp. Expired
+ * entries are never returned, and are periodically swept from the Map as new
+ * entries are added such that the Map does not grow without bound.
+ *
+ * @param <K>
+ *     The type of the keys of this Map.
+ *
+ * @param <V>
+ *     The type of the values of this Map.
+ */
+public class ExpiringMap<K, V> {
+
+    /**
+     * The default minimum amount of time to wait between sweeping expired
+     * entries from the Map, in milliseconds.
+     */
+    private static final long DEFAULT_SWEEP_INTERVAL = 60000;
+
+    /**
+     * Map of all keys to their corresponding values and expiration
+     * timestamps.
+     */
+    private final Map<K, Entry<V>> entries = new ConcurrentHashMap<K, Entry<V>>();
+
+    /**
+     * The timestamp of the last expired entry sweep. Only the thread which
+     * successfully advances this timestamp performs the sweep, such that
+     * concurrent callers never sweep the Map simultaneously.
+     */
+    private final AtomicLong lastSweep;
+
+    /**
+     * The minimum amount of time to wait between sweeping expired entries
+     * from the Map, in milliseconds.
+     */
+    private final long sweepInterval;
+
+    /**
+     * A value stored within the Map, along with its expiration timestamp.
+     *
+     * @param <V>
+     *     The type of the value.
+     */
+    private static class Entry<V> {
+
+        /**
+         * The stored value.
+         */
+        private final V value;
+
+        /**
+         * The timestamp after which this entry is expired.
+         */
+        private final long expires;
+
+        /**
+         * Creates a new Entry which expires at the given time.
+         *
+         * @param value
+         *     The stored value.
+         *
+         * @param expires
+         *     The timestamp after which this entry is expired.
+         */
+        public Entry(V value, long expires) {
+            this.value = value;
+            this.expires = expires;
+        }
+
+    }
+
+    /**
+     * Creates a new, empty ExpiringMap which sweeps expired entries at most
+     * once per minute.
+     */
+    public ExpiringMap() {
+        this(DEFAULT_SWEEP_INTERVAL, System.currentTimeMillis());
+    }
+
+    /**
+     * Creates a new, empty ExpiringMap which sweeps expired entries at the
+     * given interval.
+     *
+     * @param sweepInterval
+     *     The minimum amount of time to wait between sweeping expired entries
+     *     from the Map, in milliseconds.
+     *
+     * @param lastSweep
+     *     The timestamp to consider as the time of the last sweep.
+     */
+    ExpiringMap(long sweepInterval, long lastSweep) {
+        this.sweepInterval = sweepInterval;
+        this.lastSweep = new AtomicLong(lastSweep);
+    }
+
+    /**
+     * Iterates through the entire Map, removing any entry that has exceeded
+     * its expiration timestamp. If insufficient time has elapsed since the
+     * last sweep, or another thread has already claimed the sweep, this
+     * function has no effect.
+     *
+     * @return
+     *     true if this call performed the sweep, false otherwise.
+     */
+    boolean sweep() {
+
+        // Do not sweep until enough time has elapsed since the last sweep
+        long currentTime = System.currentTimeMillis();
+        long previousSweep = lastSweep.get();
+        if (currentTime - previousSweep < sweepInterval)
+            return false;
+
+        // Record time of sweep, leaving the sweep to another thread if that
+        // thread has already claimed it
+        if (!lastSweep.compareAndSet(previousSweep, currentTime))
+            return false;
+
+        // Remove all entries which have expired, leaving any value which
+        // has concurrently replaced an expired entry untouched
+        for (Map.Entry<K, Entry<V>> entry : entries.entrySet()) {
+            if (entry.getValue().expires <= currentTime)
+                entries.remove(entry.getKey(), entry.getValue());
+        }
+
+        return true;
+
+    }
+
+    /**
+     * Stores the given value under the given key until the given time,
+     * replacing any value previously stored under that key. Expired entries
+     * are swept from the Map if enough time has passed since the last sweep.
+     *
+     * @param key
+     *     The key to store the value under.
+     *
+     * @param value
+     *     The value to store.
+     *
+     * @param expires
+     *     The timestamp after which the value is expired.
+     */
+    public void put(K key, V value, long expires) {
+        sweep();
+        entries.put(key, new Entry<V>(value, expires));
+    }
+
+    /**
+     * Returns the value stored under the given key, if that value has not
+     * yet expired.
+     *
+     * @param key
+     *     The key of the value to return.
+     *
+     * @return
+     *     The value stored under the given key, or null if no unexpired value
+     *     is stored.
+     */
+    public V get(K key) {
+
+        Entry<V> entry = entries.get(key);
+        if (entry == null || entry.expires <= System.currentTimeMillis())
+            return null;
+
+        return entry.value;
+
+    }
+
+    /**
+     * Returns whether an unexpired value is stored under the given key.
+     *
+     * @param key
+     *     The key to test.
+     *
+     * @return
+     *     true if an unexpired value is stored under the given key, false
+     *     otherwise.
+     */
+    public boolean containsKey(K key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Removes the value stored under the given key, returning that value if
+     * it had not yet expired. At most one concurrent caller will receive the
+     * value.
+     *
+     * @param key
+     *     The key of the value to remove.
+     *
+     * @return
+     *     The removed value, or null if no unexpired value was stored.
+     */
+    public V remove(K key) {
+
+        Entry<V> entry = entries.remove(key);
+        if (entry == null || entry.expires <= System.currentTimeMillis())
+            return null;
+
+        return entry.value;
+
+    }
+
+}
@@ -0,0 +1,750 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.auth.oauth2.token;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.GuacamoleServerException;
+import org.apache.guacamole.auth.oauth2.conf.ConfigurationService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Service which retrieves group memberships from an optional, paginated
+ * groups endpoint, for OAuth2 providers which do not include (or truncate)
+ * groups within the user info response. Resolved memberships are cached per
+ * user, such that memberships are retrieved in full only if no unexpired
+ * memberships are cached.
+ *
+ * <p>Retrieval of the first page begins before the user info request is made,
+ * such that both requests proceed concurrently. If a page size is configured,
+ * remaining pages are requested by offset, several at a time; otherwise, each
+ * page's next link is followed in turn. Requests are performed on a bounded
+ * pool of background threads without any queue: a request which finds every
+ * thread busy is instead performed by the thread awaiting its result, such
+ * that no time is spent waiting in line and the timeout applies only to time
+ * spent actually contacting the groups endpoint.
+ */
+@Singleton
+public class GroupMembershipService {
+
+    /**
+     * Logger for this class.
+     */
+    private final Logger logger = LoggerFactory.getLogger(GroupMembershipService.class);
+
+    /**
+     * Provides access to configured OAuth2 settings.
+     */
+    @Inject
+    private ConfigurationService confService;
+
+    /**
+     * Service for resolving OAuth2 provider hostnames.
+     */
+    @Inject
+    private HostResolverService resolverService;
+
+    /**
+     * Shared, thread-safe mapper for parsing JSON responses.
+     */
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    /**
+     * Map of usernames to the group memberships most recently resolved for
+     * those users.
+     */
+    private final ExpiringMap<String, Set<String>> cache = new ExpiringMap<String, Set<String>>();
+
+    /**
+     * The pool of threads used to retrieve group memberships, or null if no
+     * retrieval has yet been requested. The size of this pool bounds the
+     * number of requests made against the groups endpoint in the background.
+     */
+    private ExecutorService executor;
+
+    /**
+     * A single page of group memberships returned by the groups endpoint.
+     */
+    private static class Page {
+
+        /**
+         * The group memberships listed within this page.
+         */
+        private final Set<String> groups = new HashSet<>();
+
+        /**
+         * The number of entries listed within this page, including any
+         * entries lacking a group name.
+         */
+        private int count;
+
+        /**
+         * The URL of the next page, resolved relative to the URL of this page,
+         * or null if no next link was provided.
+         */
+        private URL next;
+
+    }
+
+    /**
+     * A request for a single page of group memberships. The request is
+     * performed in the background if a thread is immediately available, and
+     * by the thread awaiting its result otherwise.
+     */
+    private class PageRequest implements Callable<Page> {
+
+        /**
+         * The URL of the page to retrieve.
+         */
+        private final URL url;
+
+        /**
+         * The retrieval which this request is part of.
+         */
+        private final GroupRetrieval retrieval;
+
+        /**
+         * The result of the request if it is being performed in the
+         * background, or null if it must be performed by the thread awaiting
+         * its result.
+         */
+        private Future<Page> future;
+
+        /**
+         * Creates a new PageRequest for the page at the given URL, starting
+         * that request in the background if a thread is available.
+         *
+         * @param url
+         *     The URL of the page to retrieve.
+         *
+         * @param retrieval
+         *     The retrieval which this request is part of.
+         *
+         * @throws GuacamoleException
+         *     If guacamole.properties cannot be parsed.
+         */
+        public PageRequest(URL url, GroupRetrieval retrieval)
+                throws GuacamoleException {
+
+            this.url = url;
+            this.retrieval = retrieval;
+
+            try {
+                future = getExecutor().submit(this);
+            }
+            catch (RejectedExecutionException e) {
+                logger.debug("All group retrieval threads are busy. Page "
+                        + "\"{}\" will be retrieved once awaited.", url);
+            }
+
+        }
+
+        /**
+         * Returns whether this request is being performed in the background.
+         *
+         * @return
+         *     true if this request is being performed in the background,
+         *     false if it will be performed once awaited.
+         */
+        public boolean isBackground() {
+            return future != null;
+        }
+
+        @Override
+        public Page call() throws Exception {
+            return fetchPage(url, retrieval);
+        }
+
+        /**
+         * Waits for this request to complete, performing the request within
+         * the current thread if it is not being performed in the background.
+         *
+         * @param deadline
+         *     The timestamp after which the request should be abandoned.
+         *
+         * @return
+         *     The retrieved page.
+         *
+         * @throws TimeoutException
+         *     If the deadline passes before the request completes.
+         *
+         * @throws InterruptedException
+         *     If the current thread is interrupted while waiting.
+         *
+         * @throws Exception
+         *     If the page cannot be retrieved.
+         */
+        public Page get(long deadline) throws Exception {
+
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0)
+                throw new TimeoutException();
+
+            if (future == null)
+                return call();
+
+            try {
+                return future.get(remaining, TimeUnit.MILLISECONDS);
+            }
+            catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                throw (cause instanceof Exception) ? (Exception) cause : e;
+            }
+
+        }
+
+        /**
+         * Abandons this request, interrupting it if it is being performed in
+         * the background.
+         */
+        public void cancel() {
+            if (future != null)
+                future.cancel(true);
+        }
+
+    }
+
+    /**
+     * An in-progress retrieval of the group memberships associated with a
+     * particular access token. The first page is requested as soon as the
+     * retrieval is created, such that it may proceed concurrently with any
+     * other request made on behalf of the same user.
+     */
+    public class GroupRetrieval {
+
+        /**
+         * The access token issued by the OAuth2 provider.
+         */
+        private final String accessToken;
+
+        /**
+         * The URL of the configured groups endpoint.
+         */
+        private final URL origin;
+
+        /**
+         * The attribute of each returned group object which contains the
+         * group name.
+         */
+        private final String attribute;
+
+        /**
+         * The property of each response which contains the URL of the next
+         * page, if any.
+         */
+        private final String nextLink;
+
+        /**
+         * The number of groups to request per page, or null if pages should
+         * be requested by following next links.
+         */
+        private final Integer pageSize;
+
+        /**
+         * The maximum number of pages to request at once.
+         */
+        private final int maxConcurrency;
+
+        /**
+         * The maximum amount of time to spend retrieving memberships, in
+         * milliseconds. This also serves as the connect and read timeout of
+         * each request.
+         */
+        private final int timeout;
+
+        /**
+         * The request for the first page.
+         */
+        private final PageRequest firstPage;
+
+        /**
+         * The timestamp at which the first page was requested.
+         */
+        private final long started;
+
+        /**
+         * Creates a new GroupRetrieval for the given access token, requesting
+         * the first page immediately if a background thread is available.
+         *
+         * @param accessToken
+         *     The access token issued by the OAuth2 provider.
+         *
+         * @throws GuacamoleException
+         *     If guacamole.properties cannot be parsed, or the groups endpoint
+         *     is not a valid URL.
+         */
+        private GroupRetrieval(String accessToken) throws GuacamoleException {
+
+            this.accessToken = accessToken;
+            this.attribute = confService.getGroupsEndpointAttribute();
+            this.nextLink = confService.getGroupsEndpointNextLink();
+            this.pageSize = confService.getGroupsEndpointPageSize();
+            this.maxConcurrency = confService.getGroupsEndpointMaxConcurrency();
+            this.timeout = confService.getGroupsEndpointTimeout() * 1000;
+
+            URI groupsUri = confService.getGroupsEndpoint();
+            try {
+                this.origin = groupsUri.toURL();
+            }
+            catch (IllegalArgumentException | MalformedURLException e) {
+                throw new GuacamoleServerException("Groups endpoint \""
+                        + groupsUri + "\" is not a valid URL.", e);
+            }
+
+            this.started = System.currentTimeMillis();
+            this.firstPage = new PageRequest(getPageURL(0), this);
+
+        }
+
+        /**
+         * Returns the URL of the page at the given index. If a page size is
+         * configured, the page is selected using the "$top" and "$skip" query
+         * parameters. Otherwise, only the first page can be addressed
+         * directly, and the groups endpoint itself is returned.
+         *
+         * @param index
+         *     The zero-based index of the page.
+         *
+         * @return
+         *     The URL of the page at the given index.
+         *
+         * @throws GuacamoleException
+         *     If the resulting URL is not valid.
+         */
+        private URL getPageURL(int index) throws GuacamoleException {
+
+            if (pageSize == null)
+                return origin;
+
+            String base = origin.toString();
+            String query = "$top=" + pageSize + "&$skip=" + ((long) index * pageSize);
+
+            try {
+                return new URL(base + (origin.getQuery() == null ? "?" : "&") + query);
+            }
+            catch (MalformedURLException e) {
+                throw new GuacamoleServerException("Groups endpoint \""
+                        + base + "\" is not a valid URL.", e);
+            }
+
+        }
+
+        /**
+         * Waits for all group memberships to be retrieved, requesting any
+         * pages beyond the first.
+         *
+         * @return
+         *     The full set of group memberships.
+         *
+         * @throws TimeoutException
+         *     If memberships are not retrieved within the configured timeout.
+         *
+         * @throws InterruptedException
+         *     If the current thread is interrupted while waiting.
+         *
+         * @throws Exception
+         *     If any page cannot be retrieved.
+         */
+        private Set<String> retrieve() throws Exception {
+
+            // If the first page could not be requested in the background, the
+            // time allowed starts only now, as it is requested
+            long deadline = (firstPage.isBackground() ? started : System.currentTimeMillis()) + timeout;
+
+            Page page = firstPage.get(deadline);
+            Set<String> groups = new HashSet<>(page.groups);
+
+            // Request remaining pages by offset, several at a time, until a
+            // page is not full
+            if (pageSize != null) {
+
+                int index = 1;
+                boolean more = page.count >= pageSize;
+                while (more) {
+
+                    List<PageRequest> requests = new ArrayList<>(maxConcurrency);
+                    try {
+
+                        for (int i = 0; i < maxConcurrency; i++)
+                            requests.add(new PageRequest(getPageURL(index++), this));
+
+                        for (PageRequest request : requests) {
+
+                            page = request.get(deadline);
+
+                            // A full page of nothing but already-seen groups
+                            // means the endpoint is returning the same page
+                            // regardless of offset
+                            if (!groups.addAll(page.groups) && page.count >= pageSize)
+                                throw new Exception("The groups endpoint returned "
+                                        + "the same groups regardless of \"$skip\". "
+                                        + "Unset the groups endpoint page size to "
+                                        + "follow next links instead.");
+
+                            // Any later pages requested alongside a page
+                            // which is not full are necessarily empty
+                            if (page.count < pageSize) {
+                                more = false;
+                                break;
+                            }
+
+                        }
+
+                    }
+                    finally {
+                        for (PageRequest request : requests)
+                            request.cancel();
+                    }
+
+                }
+
+            }
+
+            // Otherwise, follow next links in turn, as each link is known
+            // only once the previous page has been retrieved
+            else {
+
+                URL url = page.next;
+                while (url != null) {
+
+                    // Never send the access token anywhere but the configured
+                    // groups endpoint
+                    if (!isSameOrigin(origin, url))
+                        throw new Exception("Refusing to follow next link to \""
+                                + url.getProtocol() + "://" + url.getAuthority()
+                                + "\", which differs from the groups endpoint.");
+
+                    if (System.currentTimeMillis() >= deadline)
+                        throw new TimeoutException();
+
+                    page = fetchPage(url, this);
+                    groups.addAll(page.groups);
+                    url = page.next;
+
+                }
+
+            }
+
+            return groups;
+
+        }
+
+        /**
+         * Abandons this retrieval, interrupting the request for the first page
+         * if it is still in progress.
+         */
+        public void cancel() {
+            firstPage.cancel();
+        }
+
+    }
+
+    /**
+     * Returns whether a groups endpoint has been configured.
+     *
+     * @return
+     *     true if a groups endpoint has been configured, false otherwise.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public boolean isEnabled() throws GuacamoleException {
+        return confService.getGroupsEndpoint() != null;
+    }
+
+    /**
+     * Returns the pool of threads used to retrieve group memberships,
+     * creating that pool if it does not yet exist. The pool does not queue
+     * requests, rejecting any request submitted while all threads are busy.
+     *
+     * @return
+     *     The pool of threads used to retrieve group memberships.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    private synchronized ExecutorService getExecutor() throws GuacamoleException {
+
+        if (executor == null) {
+            final AtomicInteger threadCount = new AtomicInteger();
+            int threads = confService.getGroupsEndpointMaxConcurrency();
+            executor = new ThreadPoolExecutor(threads, threads,
+                    0, TimeUnit.MILLISECONDS, new SynchronousQueue<Runnable>(),
+                    new ThreadFactory() {
+
+                @Override
+                public Thread newThread(Runnable task) {
+                    Thread thread = new Thread(task, "oauth2-groups-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+
+            });
+        }
+
+        return executor;
+
+    }
+
+    /**
+     * Begins retrieving the group memberships available from the configured
+     * groups endpoint using the given access token. The returned retrieval
+     * must eventually be either passed to getGroups() or cancelled.
+     *
+     * @param accessToken
+     *     The access token issued by the OAuth2 provider.
+     *
+     * @return
+     *     The in-progress retrieval.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public GroupRetrieval fetch(String accessToken) throws GuacamoleException {
+        return new GroupRetrieval(accessToken);
+    }
+
+    /**
+     * Retrieves a single page of group memberships.
+     *
+     * @param url
+     *     The URL of the page to retrieve.
+     *
+     * @param retrieval
+     *     The retrieval which this page is part of.
+     *
+     * @return
+     *     The retrieved page.
+     *
+     * @throws Exception
+     *     If the page cannot be retrieved.
+     */
+    private Page fetchPage(URL url, GroupRetrieval retrieval) throws Exception {
+
+        // Open an HTTP GET request with Authorization header
+        HttpURLConnection connection = resolverService.openConnection(url);
+        connection.setConnectTimeout(retrieval.timeout);
+        connection.setReadTimeout(retrieval.timeout);
+        connection.setRequestMethod("GET");
+        connection.setRequestProperty("Authorization", "Bearer " + retrieval.accessToken);
+        connection.setRequestProperty("Accept", "application/json");
+
+        // Check response status
+        int responseCode = connection.getResponseCode();
+        if (responseCode != 200) {
+            throw new Exception("Failed to retrieve group memberships. HTTP " + responseCode);
+        }
+
+        // Parse the response JSON
+        JsonNode json;
+        try (InputStream responseStream = connection.getInputStream()) {
+            json = mapper.readTree(responseStream);
+        }
+
+        // Groups may be returned either as a bare array or wrapped within
+        // the "value" property of a paged response
+        Page page = new Page();
+        JsonNode values = json.isArray() ? json : json.get("value");
+        if (values != null && values.isArray()) {
+            for (JsonNode group : values) {
+                JsonNode name = group.isObject() ? group.get(retrieval.attribute) : group;
+                if (name != null && !name.isNull())
+                    page.groups.add(name.asText());
+                page.count++;
+            }
+        }
+
+        // Note next page, if any
+        JsonNode next = json.get(retrieval.nextLink);
+        if (next != null && !next.isNull())
+            page.next = new URL(url, next.asText());
+
+        return page;
+
+    }
+
+    /**
+     * Returns whether the given URLs share the same scheme, host and port.
+     * Default ports are taken into account, such that a URL lacking an
+     * explicit port matches a URL specifying the default port of its scheme.
+     *
+     * @param origin
+     *     The URL whose origin the other URL must match.
+     *
+     * @param url
+     *     The URL to compare against the given origin.
+     *
+     * @return
+     *     true if both URLs share the same scheme, host and port, false
+     *     otherwise.
+     */
+    private static boolean isSameOrigin(URL origin, URL url) {
+
+        int originPort = origin.getPort() != -1 ? origin.getPort() : origin.getDefaultPort();
+        int port = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+
+        return origin.getProtocol().equalsIgnoreCase(url.getProtocol())
+                && origin.getHost().equalsIgnoreCase(url.getHost())
+                && originPort == port;
+
+    }
+
+    /**
+     * Returns the cached group memberships of the given user, if those
+     * memberships have been resolved and have not yet expired.
+     *
+     * @param username
+     *     The username of the user whose group memberships should be
+     *     returned.
+     *
+     * @return
+     *     The cached group memberships of the given user, or null if no
+     *     unexpired memberships are cached.
+     */
+    private Set<String> getCached(String username) {
+        return cache.get(username);
+    }
+
+    /**
+     * Caches the given group memberships for the given user, replacing any
+     * memberships previously cached for that user.
+     *
+     * @param username
+     *     The username of the user whose group memberships were resolved.
+     *
+     * @param groups
+     *     The resolved group memberships.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    private void cache(String username, Set<String> groups)
+            throws GuacamoleException {
+
+        long expires = System.currentTimeMillis()
+                + confService.getGroupsCacheValidity() * 60000L;
+        cache.put(username, Collections.unmodifiableSet(groups), expires);
+
+    }
+
+    /**
+     * Returns the group memberships of the given user as provided by the
+     * groups endpoint. Cached memberships are returned without waiting on the
+     * given retrieval if they have not yet expired, in which case the
+     * retrieval is cancelled. If the groups endpoint fails or does not respond
+     * within the configured timeout, no groups are returned and nothing is
+     * cached, such that authentication proceeds with only the groups present
+     * in the user info response. As Guacamole permissions are purely
+     * additive, this can only reduce the access granted to the user.
+     *
+     * @param username
+     *     The username of the user whose group memberships should be
+     *     retrieved.
+     *
+     * @param retrieval
+     *     The retrieval previously started for that user's access token via
+     *     fetch().
+     *
+     * @return
+     *     The group memberships of the given user, or an empty Set if those
+     *     memberships could not be retrieved.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public Set<String> getGroups(String username, GroupRetrieval retrieval)
+            throws GuacamoleException {
+
+        Set<String> groups;
+        try {
+
+            // Reuse previously-resolved memberships if they have not yet
+            // expired
+            groups = getCached(username);
+            if (groups != null) {
+                logger.debug("Using cached group memberships for user \"{}\".", username);
+                return groups;
+            }
+
+            groups = retrieval.retrieve();
+
+        }
+        catch (TimeoutException e) {
+            logger.warn("Group memberships of user \"{}\" were not retrieved "
+                    + "within {} seconds. Continuing without them.", username,
+                    retrieval.timeout / 1000);
+            return Collections.emptySet();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Collections.emptySet();
+        }
+        catch (Exception e) {
+            logger.warn("Group memberships of user \"{}\" could not be "
+                    + "retrieved: {}", username, e.getMessage());
+            logger.debug("Unable to retrieve group memberships.", e);
+            return Collections.emptySet();
+        }
+        finally {
+            retrieval.cancel();
+        }
+
+        cache(username, groups);
+        return groups;
+
+    }
+
+    /**
+     * Stops all threads used to retrieve group memberships. Any retrieval
+     * still in progress is interrupted.
+     */
+    public synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+}
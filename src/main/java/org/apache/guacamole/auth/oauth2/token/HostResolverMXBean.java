@@ -0,0 +1,90 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.auth.oauth2.token;
+
+/**
+ * Management interface exposing the statistics of the OAuth2 provider DNS
+ * cache maintained by HostResolverService.
+ */
+public interface HostResolverMXBean {
+
+    /**
+     * Returns the number of hostnames currently cached.
+     *
+     * @return
+     *     The number of hostnames currently cached.
+     */
+    int getCachedHosts();
+
+    /**
+     * Returns the number of connections opened while unexpired addresses
+     * were cached for the target host.
+     *
+     * @return
+     *     The number of connections opened with unexpired cached addresses.
+     */
+    long getHits();
+
+    /**
+     * Returns the number of connections opened while only expired, but still
+     * usable, addresses were cached for the target host.
+     *
+     * @return
+     *     The number of connections opened with expired cached addresses.
+     */
+    long getStaleHits();
+
+    /**
+     * Returns the number of connections opened while no usable addresses
+     * were cached for the target host, and which were therefore left to the
+     * JVM resolver.
+     *
+     * @return
+     *     The number of connections opened without usable cached addresses.
+     */
+    long getMisses();
+
+    /**
+     * Returns the number of lookups which were skipped because the previous
+     * lookup of the same host failed within the configured negative TTL.
+     *
+     * @return
+     *     The number of lookups skipped due to a recent failure.
+     */
+    long getNegativeHits();
+
+    /**
+     * Returns the number of connections whose socket was actually connected
+     * to a cached address.
+     *
+     * @return
+     *     The number of connections made to a cached address.
+     */
+    long getCachedConnections();
+
+    /**
+     * Returns the number of background lookups which failed.
+     *
+     * @return
+     *     The number of failed lookups.
+     */
+    long getFailures();
+
+}
@@ -0,0 +1,640 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.auth.oauth2.token;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.auth.oauth2.conf.ConfigurationService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Service which opens connections to the OAuth2 provider using cached
+ * addresses of the provider's hostnames. Cached addresses are refreshed in
+ * the background, and addresses which are past their TTL continue to be used
+ * for a configurable period while a refresh is in progress. Cached addresses
+ * are used only for HTTPS connections, where the socket is connected to the
+ * cached address while TLS server name indication and certificate
+ * verification continue to use the original hostname. Statistics are exposed
+ * through JMX as {@value #OBJECT_NAME}.
+ *
+ * <p>HttpsURLConnection provides no way to replace its resolver, and always
+ * resolves the hostname through the JVM, on the thread opening the
+ * connection, before connecting its socket. This cache does not avoid that
+ * lookup, and a slow resolver will still delay logins to the extent the JVM's
+ * own address cache (networkaddress.cache.ttl) does not absorb it. The cached
+ * address only determines where the socket connects, including when that
+ * lookup has failed. Background refreshes resolve through the JVM as well,
+ * and so may be answered from the JVM's address cache.
+ */
+@Singleton
+public class HostResolverService implements HostResolverMXBean {
+
+    /**
+     * The JMX object name under which cache statistics are registered.
+     */
+    public static final String OBJECT_NAME = "org.apache.guacamole.auth.oauth2:type=HostResolver";
+
+    /**
+     * Logger for this class.
+     */
+    private final Logger logger = LoggerFactory.getLogger(HostResolverService.class);
+
+    /**
+     * Provides access to configured OAuth2 settings.
+     */
+    @Inject
+    private ConfigurationService confService;
+
+    /**
+     * Map of all hostnames resolved through this service to the addresses
+     * most recently resolved for those hostnames.
+     */
+    private final Map<String, CachedResolution> cache = new ConcurrentHashMap<String, CachedResolution>();
+
+    /**
+     * The hostnames currently being resolved in the background.
+     */
+    private final Set<String> refreshing = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Map of hostnames whose most recent lookup failed to the time of that
+     * failure.
+     */
+    private final Map<String, Long> failed = new ConcurrentHashMap<String, Long>();
+
+    /**
+     * The number of connections opened with unexpired cached addresses.
+     */
+    private final AtomicLong hits = new AtomicLong();
+
+    /**
+     * The number of connections opened with expired cached addresses while
+     * a refresh was pending.
+     */
+    private final AtomicLong staleHits = new AtomicLong();
+
+    /**
+     * The number of connections opened without usable cached addresses.
+     */
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * The number of lookups skipped because the host recently failed to
+     * resolve.
+     */
+    private final AtomicLong negativeHits = new AtomicLong();
+
+    /**
+     * The number of connections made to a cached address.
+     */
+    private final AtomicLong cachedConnections = new AtomicLong();
+
+    /**
+     * The number of background lookups which failed.
+     */
+    private final AtomicLong failures = new AtomicLong();
+
+    /**
+     * The thread which resolves hostnames in the background, or null if no
+     * connection has yet been opened.
+     */
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * The SSLSocketFactory which connects HTTPS connections to cached
+     * addresses, or null if no HTTPS connection has yet been opened.
+     */
+    private SSLSocketFactory socketFactory;
+
+    /**
+     * The addresses resolved for a single hostname, along with the time of
+     * resolution.
+     */
+    private static class CachedResolution {
+
+        /**
+         * The resolved addresses.
+         */
+        private final InetAddress[] addresses;
+
+        /**
+         * The timestamp at which resolution was performed.
+         */
+        private final long resolved = System.currentTimeMillis();
+
+        /**
+         * Creates a new CachedResolution representing the given addresses.
+         *
+         * @param addresses
+         *     The resolved addresses.
+         */
+        public CachedResolution(InetAddress[] addresses) {
+            this.addresses = addresses;
+        }
+
+    }
+
+    /**
+     * Socket which, when connected to a hostname having usable cached
+     * addresses, connects to the first of those addresses rather than to
+     * whatever the JVM resolved for that hostname, if anything.
+     */
+    private class CachedAddressSocket extends Socket {
+
+        @Override
+        public void connect(SocketAddress endpoint, int timeout)
+                throws IOException {
+            super.connect(getCachedEndpoint(endpoint), timeout);
+        }
+
+    }
+
+    /**
+     * SSLSocketFactory which connects sockets to cached addresses, layering
+     * TLS over those sockets using the JVM's default SSLSocketFactory. As TLS
+     * is layered using the original hostname, server name indication and
+     * certificate verification are unaffected by the use of cached
+     * addresses.
+     */
+    private class CachedAddressSocketFactory extends SSLSocketFactory {
+
+        /**
+         * The factory which performs all TLS-related work.
+         */
+        private final SSLSocketFactory delegate = HttpsURLConnection.getDefaultSSLSocketFactory();
+
+        @Override
+        public Socket createSocket() {
+            return new CachedAddressSocket();
+        }
+
+        @Override
+        public Socket createSocket(Socket socket, String host, int port,
+                boolean autoClose) throws IOException {
+            return delegate.createSocket(socket, host, port, autoClose);
+        }
+
+        @Override
+        public Socket createSocket(String host, int port) throws IOException {
+            return createSocket(host, port, null, 0);
+        }
+
+        @Override
+        public Socket createSocket(String host, int port,
+                InetAddress localHost, int localPort) throws IOException {
+
+            Socket socket = new CachedAddressSocket();
+            try {
+                if (localHost != null || localPort != 0)
+                    socket.bind(new InetSocketAddress(localHost, localPort));
+                socket.connect(InetSocketAddress.createUnresolved(host, port));
+                return delegate.createSocket(socket, host, port, true);
+            }
+            catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+
+        }
+
+        @Override
+        public Socket createSocket(InetAddress host, int port)
+                throws IOException {
+            return delegate.createSocket(host, port);
+        }
+
+        @Override
+        public Socket createSocket(InetAddress address, int port,
+                InetAddress localAddress, int localPort) throws IOException {
+            return delegate.createSocket(address, port, localAddress, localPort);
+        }
+
+        @Override
+        public String[] getDefaultCipherSuites() {
+            return delegate.getDefaultCipherSuites();
+        }
+
+        @Override
+        public String[] getSupportedCipherSuites() {
+            return delegate.getSupportedCipherSuites();
+        }
+
+    }
+
+    /**
+     * Returns the thread which resolves hostnames in the background,
+     * creating and scheduling that thread and registering cache statistics
+     * with JMX if that thread does not yet exist.
+     *
+     * @param ttl
+     *     The configured TTL of cached addresses, in milliseconds.
+     *
+     * @return
+     *     The thread which resolves hostnames in the background.
+     */
+    private synchronized ScheduledExecutorService getScheduler(long ttl) {
+
+        if (scheduler == null) {
+
+            scheduler = Executors.newSingleThreadScheduledExecutor((Runnable task) -> {
+                Thread thread = new Thread(task, "oauth2-dns-refresh");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleWithFixedDelay(this::refreshAll, ttl, ttl, TimeUnit.MILLISECONDS);
+
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+            }
+            catch (JMException e) {
+                logger.warn("Unable to register OAuth2 provider DNS cache "
+                        + "statistics with JMX: {}", e.getMessage());
+                logger.debug("Unable to register DNS cache statistics.", e);
+            }
+
+        }
+
+        return scheduler;
+
+    }
+
+    /**
+     * Returns the SSLSocketFactory which connects HTTPS connections to
+     * cached addresses, creating that factory if it does not yet exist. A
+     * single factory is shared by all connections, such that persistent
+     * connections continue to be reused.
+     *
+     * @return
+     *     The SSLSocketFactory which connects to cached addresses.
+     */
+    private synchronized SSLSocketFactory getSocketFactory() {
+
+        if (socketFactory == null)
+            socketFactory = new CachedAddressSocketFactory();
+
+        return socketFactory;
+
+    }
+
+    /**
+     * Claims the lookup of the given hostname, such that only one lookup of
+     * any hostname is in progress at a time, and a hostname which failed to
+     * resolve is not looked up again until the configured negative TTL has
+     * elapsed. A successful claim must be released by removing the hostname
+     * from the set of refreshing hostnames.
+     *
+     * @param host
+     *     The hostname to be resolved.
+     *
+     * @param negativeTTL
+     *     The configured negative TTL, in milliseconds.
+     *
+     * @return
+     *     true if the caller should perform the lookup, false otherwise.
+     */
+    private boolean claimLookup(String host, long negativeTTL) {
+
+        Long failure = failed.get(host);
+        if (failure != null && System.currentTimeMillis() - failure < negativeTTL) {
+            negativeHits.incrementAndGet();
+            return false;
+        }
+
+        return refreshing.add(host);
+
+    }
+
+    /**
+     * Performs a blocking lookup of the given hostname, caching the result.
+     * If the lookup fails, the time of failure is recorded and any
+     * previously-cached addresses are retained, to be used until they exceed
+     * the configured stale TTL.
+     *
+     * @param host
+     *     The hostname to resolve.
+     */
+    private void lookup(String host) {
+        try {
+            cache.put(host, new CachedResolution(InetAddress.getAllByName(host)));
+            failed.remove(host);
+        }
+        catch (UnknownHostException e) {
+            failed.put(host, System.currentTimeMillis());
+            failures.incrementAndGet();
+            logger.debug("Unable to resolve OAuth2 provider host \"{}\".", host, e);
+        }
+    }
+
+    /**
+     * Resolves the given hostname in the background, unless a lookup of
+     * that hostname is already in progress or recently failed.
+     *
+     * @param host
+     *     The hostname to resolve.
+     *
+     * @param ttl
+     *     The configured TTL of cached addresses, in milliseconds.
+     *
+     * @param negativeTTL
+     *     The configured negative TTL, in milliseconds.
+     */
+    private void refreshAsync(final String host, long ttl, long negativeTTL) {
+
+        if (!claimLookup(host, negativeTTL))
+            return;
+
+        getScheduler(ttl).execute(() -> {
+            try {
+                lookup(host);
+            }
+            finally {
+                refreshing.remove(host);
+            }
+        });
+
+    }
+
+    /**
+     * Refreshes all cached hostnames and removes any hostname whose cached
+     * addresses can no longer be used, logging current statistics. This
+     * function is invoked periodically by the background refresh thread.
+     */
+    private void refreshAll() {
+
+        long staleLimit;
+        long negativeTTL;
+        try {
+            staleLimit = (confService.getDnsCacheTTL() + confService.getDnsCacheStaleTTL()) * 1000L;
+            negativeTTL = confService.getDnsCacheNegativeTTL() * 1000L;
+        }
+        catch (GuacamoleException e) {
+            logger.warn("Unable to read DNS cache configuration: {}", e.getMessage());
+            logger.debug("Unable to read DNS cache configuration.", e);
+            return;
+        }
+
+        long currentTime = System.currentTimeMillis();
+        Iterator<Map.Entry<String, CachedResolution>> entries = cache.entrySet().iterator();
+        while (entries.hasNext()) {
+
+            // Drop addresses which can no longer be used, such that hosts no
+            // longer in use are eventually forgotten
+            Map.Entry<String, CachedResolution> current = entries.next();
+            if (currentTime - current.getValue().resolved >= staleLimit)
+                entries.remove();
+
+            // Refresh all other addresses
+            else if (claimLookup(current.getKey(), negativeTTL)) {
+                try {
+                    lookup(current.getKey());
+                }
+                finally {
+                    refreshing.remove(current.getKey());
+                }
+            }
+
+        }
+
+        // Forget failures which no longer prevent lookups
+        failed.values().removeIf(failure -> currentTime - failure >= negativeTTL);
+
+        logger.debug("OAuth2 provider DNS cache: {} hosts, {} hits, {} stale hits, "
+                + "{} misses, {} negative hits, {} cached connections, {} failures.",
+                getCachedHosts(), getHits(), getStaleHits(), getMisses(),
+                getNegativeHits(), getCachedConnections(), getFailures());
+
+    }
+
+    /**
+     * Returns the cached addresses of the given hostname, if those addresses
+     * have not exceeded the configured stale TTL.
+     *
+     * @param host
+     *     The hostname whose cached addresses should be returned.
+     *
+     * @return
+     *     The cached addresses of the given hostname, or null if no usable
+     *     addresses are cached or the DNS cache is disabled.
+     */
+    private InetAddress[] getCachedAddresses(String host) {
+
+        CachedResolution resolution = cache.get(host);
+        if (resolution == null)
+            return null;
+
+        long staleLimit;
+        try {
+            long ttl = confService.getDnsCacheTTL() * 1000L;
+            if (ttl <= 0)
+                return null;
+            staleLimit = ttl + confService.getDnsCacheStaleTTL() * 1000L;
+        }
+        catch (GuacamoleException e) {
+            logger.debug("Unable to read DNS cache configuration.", e);
+            return null;
+        }
+
+        if (System.currentTimeMillis() - resolution.resolved >= staleLimit)
+            return null;
+
+        return resolution.addresses;
+
+    }
+
+    /**
+     * Returns the endpoint that a socket should actually connect to in place
+     * of the given endpoint. If usable addresses are cached for the hostname
+     * of the given endpoint, the first of those addresses is used, even if
+     * the JVM resolver has since failed to resolve that hostname. Otherwise,
+     * the given endpoint is used as-is, being resolved only if not already
+     * resolved.
+     *
+     * @param endpoint
+     *     The endpoint requested by the caller of connect().
+     *
+     * @return
+     *     The endpoint that the socket should connect to.
+     */
+    private SocketAddress getCachedEndpoint(SocketAddress endpoint) {
+
+        if (!(endpoint instanceof InetSocketAddress))
+            return endpoint;
+
+        InetSocketAddress address = (InetSocketAddress) endpoint;
+        InetAddress[] addresses = getCachedAddresses(address.getHostString());
+        if (addresses != null && addresses.length > 0) {
+            cachedConnections.incrementAndGet();
+            return new InetSocketAddress(addresses[0], address.getPort());
+        }
+
+        if (address.isUnresolved())
+            return new InetSocketAddress(address.getHostString(), address.getPort());
+
+        return endpoint;
+
+    }
+
+    /**
+     * Opens a connection to the given URL, connecting to cached addresses of
+     * the URL's hostname where possible. Unexpired addresses are used
+     * directly. Expired addresses are also used, while a refresh occurs in the
+     * background, until they exceed the configured stale TTL. If no usable
+     * addresses are cached, the connection uses the address resolved by the
+     * JVM, while the hostname is resolved into the cache in the background.
+     * In all cases, the connection itself still resolves the hostname through
+     * the JVM on the calling thread when connected. A hostname which failed to resolve is not looked up again
+     * in the background until the configured negative TTL has elapsed.
+     * Cached addresses are used only for HTTPS URLs. If the DNS cache is
+     * disabled, the connection is opened as-is.
+     *
+     * @param url
+     *     The URL to open a connection to.
+     *
+     * @return
+     *     A new, unconnected HttpURLConnection to the given URL.
+     *
+     * @throws IOException
+     *     If the connection cannot be created.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public HttpURLConnection openConnection(URL url) throws IOException,
+            GuacamoleException {
+
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+
+        long ttl = confService.getDnsCacheTTL() * 1000L;
+        if (ttl <= 0)
+            return connection;
+
+        long staleLimit = ttl + confService.getDnsCacheStaleTTL() * 1000L;
+        long negativeTTL = confService.getDnsCacheNegativeTTL() * 1000L;
+        getScheduler(ttl);
+
+        String host = url.getHost();
+        CachedResolution resolution = cache.get(host);
+        long age = resolution != null
+                ? System.currentTimeMillis() - resolution.resolved : Long.MAX_VALUE;
+
+        // Use fresh addresses directly
+        if (age < ttl)
+            hits.incrementAndGet();
+
+        // Use stale addresses while refreshing in the background
+        else if (age < staleLimit) {
+            staleHits.incrementAndGet();
+            refreshAsync(host, ttl, negativeTTL);
+        }
+
+        // Without usable addresses, leave this connection to the JVM resolver
+        // and populate the cache in the background for later connections
+        else {
+            misses.incrementAndGet();
+            refreshAsync(host, ttl, negativeTTL);
+        }
+
+        if (connection instanceof HttpsURLConnection)
+            ((HttpsURLConnection) connection).setSSLSocketFactory(getSocketFactory());
+
+        return connection;
+
+    }
+
+    @Override
+    public int getCachedHosts() {
+        return cache.size();
+    }
+
+    @Override
+    public long getHits() {
+        return hits.get();
+    }
+
+    @Override
+    public long getStaleHits() {
+        return staleHits.get();
+    }
+
+    @Override
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public long getNegativeHits() {
+        return negativeHits.get();
+    }
+
+    @Override
+    public long getCachedConnections() {
+        return cachedConnections.get();
+    }
+
+    @Override
+    public long getFailures() {
+        return failures.get();
+    }
+
+    /**
+     * Stops the thread which resolves hostnames in the background and
+     * removes cache statistics from JMX.
+     */
+    public synchronized void shutdown() {
+
+        if (scheduler == null)
+            return;
+
+        scheduler.shutdownNow();
+        scheduler = null;
+
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(OBJECT_NAME));
+        }
+        catch (JMException e) {
+            logger.debug("Unable to unregister DNS cache statistics.", e);
+        }
+
+    }
+
+}
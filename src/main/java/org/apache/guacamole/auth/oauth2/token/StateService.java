@@ -22,9 +22,6 @@ package org.apache.guacamole.auth.oauth2.token;
 import com.google.inject.Singleton;
 import java.math.BigInteger;
 import java.security.SecureRandom;
-import java.util.Iterator;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Service for generating and validating single-use random tokens (states).
@@ -39,51 +36,11 @@ public class StateService {
     private final SecureRandom random = new SecureRandom();
 
     /**
-     * Map of all generated states to their corresponding expiration timestamps.
-     * This Map must be periodically swept of expired states to avoid growing
-     * without bound.
+     * Map of all generated states to their corresponding expiration
+     * timestamps. Expired states are periodically swept from this Map as new
+     * states are generated.
      */
-    private final Map<String, Long> states = new ConcurrentHashMap<String, Long>();
-
-    /**
-     * The timestamp of the last expired state sweep.
-     */
-    private long lastSweep = System.currentTimeMillis();
-
-    /**
-     * The minimum amount of time to wait between sweeping expired states from
-     * the Map.
-     */
-    private static final long SWEEP_INTERVAL = 60000;
-
-    /**
-     * Iterates through the entire Map of generated states, removing any state
-     * that has exceeded its expiration timestamp. If insufficient time has
-     * elapsed since the last sweep, as dictated by SWEEP_INTERVAL, this
-     * function has no effect.
-     */
-    private void sweepExpiredStates() {
-
-        // Do not sweep until enough time has elapsed since the last sweep
-        long currentTime = System.currentTimeMillis();
-        if (currentTime - lastSweep < SWEEP_INTERVAL)
-            return;
-
-        // Record time of sweep
-        lastSweep = currentTime;
-
-        // For each stored state
-        Iterator<Map.Entry<String, Long>> entries = states.entrySet().iterator();
-        while (entries.hasNext()) {
-
-            // Remove all entries which have expired
-            Map.Entry<String, Long> current = entries.next();
-            if (current.getValue() <= System.currentTimeMillis())
-                entries.remove();
-
-        }
-
-    }
+    private final ExpiringMap<String, Boolean> states = new ExpiringMap<String, Boolean>();
 
     /**
      * Generates a cryptographically-secure state value. The state is intended
@@ -98,12 +55,9 @@ public class StateService {
      */
     public String generate(long maxAge) {
 
-        // Sweep expired states if enough time has passed
-        sweepExpiredStates();
-
         // Generate and store state, along with expiration timestamp
         String state = new BigInteger(130, random).toString(32);
-        states.put(state, System.currentTimeMillis() + maxAge);
+        states.put(state, Boolean.TRUE, System.currentTimeMillis() + maxAge);
         return state;
 
     }
@@ -122,13 +76,8 @@ public class StateService {
      */
     public boolean isValid(String state) {
 
-        // Remove state, verifying whether it was present at all
-        Long expires = states.remove(state);
-        if (expires == null)
-            return false;
-
-        // State is only valid if it hasn't expired
-        return expires > System.currentTimeMillis();
+        // Remove state, verifying whether it was present and unexpired
+        return states.remove(state) != null;
 
     }
 
@@ -0,0 +1,462 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.auth.oauth2.token;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.GuacamoleServerException;
+import org.apache.guacamole.auth.oauth2.OAuth2UserInfo;
+import org.apache.guacamole.auth.oauth2.conf.ConfigurationService;
+
+/**
+ * Service for issuing and verifying short-lived, HMAC-signed
+ * re-authentication tickets. A ticket contains a username, that user's groups
+ * and an expiration timestamp, allowing a returning user to be authenticated
+ * locally without contacting the OAuth2 provider. Tickets may be revoked
+ * prior to expiration.
+ */
+@Singleton
+public class TicketService {
+
+    /**
+     * The name of the cookie in which re-authentication tickets are stored.
+     */
+    public static final String TICKET_COOKIE_NAME = "GUAC_OAUTH2_TICKET";
+
+    /**
+     * The HMAC algorithm used to sign tickets.
+     */
+    private static final String SIGNATURE_ALGORITHM = "HmacSHA256";
+
+    /**
+     * The minimum length of a configured signing secret, in bytes.
+     */
+    private static final int MIN_SECRET_LENGTH = 32;
+
+    /**
+     * The maximum length of an issued ticket, such that the ticket and the
+     * attributes of its cookie fit within the 4096 bytes that browsers are
+     * required to support for a single cookie.
+     */
+    private static final int MAX_TICKET_LENGTH = 3800;
+
+    /**
+     * Prefix of the group segment of tickets which contain the user's groups
+     * directly, as compressed JSON.
+     */
+    private static final char EMBEDDED_GROUPS = 'g';
+
+    /**
+     * Prefix of the group segment of tickets which contain only a digest of
+     * the user's groups, used only if the groups are too large to embed.
+     */
+    private static final char DIGESTED_GROUPS = 'd';
+
+    /**
+     * Provides access to configured OAuth2 settings.
+     */
+    @Inject
+    private ConfigurationService confService;
+
+    /**
+     * Cryptographically-secure random number generator for generating ticket
+     * identifiers and, if no secret is configured, the signing key.
+     */
+    private final SecureRandom random = new SecureRandom();
+
+    /**
+     * Encoder for the URL-safe, unpadded Base64 segments of each ticket.
+     */
+    private final Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+
+    /**
+     * Decoder for the URL-safe, unpadded Base64 segments of each ticket.
+     */
+    private final Base64.Decoder decoder = Base64.getUrlDecoder();
+
+    /**
+     * Mapper for serializing the groups embedded within tickets.
+     */
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    /**
+     * Map of group digests to the groups which produced those digests,
+     * expiring along with the latest ticket referencing them.
+     * Only tickets whose groups are too large to embed refer to this Map.
+     */
+    private final ExpiringMap<String, Set<String>> groupsByDigest = new ExpiringMap<String, Set<String>>();
+
+    /**
+     * Map of the identifiers of all revoked, unexpired tickets, expiring
+     * along with the tickets themselves.
+     */
+    private final ExpiringMap<String, Boolean> revoked = new ExpiringMap<String, Boolean>();
+
+    /**
+     * The key used to sign tickets if no secret is configured. This key is
+     * generated randomly, and thus tickets are invalidated upon restart.
+     */
+    private final byte[] generatedKey = new byte[32];
+
+    /**
+     * Creates a new TicketService, generating the random signing key used
+     * if no secret is configured.
+     */
+    public TicketService() {
+        random.nextBytes(generatedKey);
+    }
+
+    /**
+     * Returns whether re-authentication tickets have been enabled by
+     * configuring a nonzero ticket validity.
+     *
+     * @return
+     *     true if re-authentication tickets are enabled, false otherwise.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public boolean isEnabled() throws GuacamoleException {
+        return confService.getTicketValidity() > 0;
+    }
+
+    /**
+     * Returns the configured ticket validity, in seconds.
+     *
+     * @return
+     *     The number of seconds that each issued ticket remains valid.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public int getValiditySeconds() throws GuacamoleException {
+        return confService.getTicketValidity() * 60;
+    }
+
+    /**
+     * Returns a new Mac instance initialized with the signing key.
+     *
+     * @return
+     *     A Mac instance initialized with the signing key.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed, or the signing algorithm
+     *     is not available.
+     */
+    private Mac getMac() throws GuacamoleException {
+
+        String secret = confService.getTicketSecret();
+        byte[] key = generatedKey;
+        if (secret != null) {
+            key = secret.getBytes(StandardCharsets.UTF_8);
+            if (key.length < MIN_SECRET_LENGTH)
+                throw new GuacamoleServerException("The ticket secret must be "
+                        + "at least " + MIN_SECRET_LENGTH + " bytes long.");
+        }
+
+        try {
+            Mac mac = Mac.getInstance(SIGNATURE_ALGORITHM);
+            mac.init(new SecretKeySpec(key, SIGNATURE_ALGORITHM));
+            return mac;
+        }
+        catch (GeneralSecurityException e) {
+            throw new GuacamoleServerException("Unable to initialize ticket signature.", e);
+        }
+
+    }
+
+    /**
+     * Returns a digest uniquely identifying the given set of groups,
+     * independent of iteration order.
+     *
+     * @param groups
+     *     The groups to digest.
+     *
+     * @return
+     *     A URL-safe digest of the given groups.
+     *
+     * @throws GuacamoleException
+     *     If the digest algorithm is not available.
+     */
+    private String digest(Set<String> groups) throws GuacamoleException {
+
+        List<String> sorted = new ArrayList<>(groups);
+        Collections.sort(sorted);
+
+        try {
+            MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+            for (String group : sorted) {
+                sha256.update(group.getBytes(StandardCharsets.UTF_8));
+                sha256.update((byte) 0);
+            }
+            return encoder.encodeToString(sha256.digest());
+        }
+        catch (GeneralSecurityException e) {
+            throw new GuacamoleServerException("Unable to digest groups.", e);
+        }
+
+    }
+
+    /**
+     * Returns the signature of the given ticket payload.
+     *
+     * @param payload
+     *     The ticket payload to sign.
+     *
+     * @return
+     *     The URL-safe signature of the given payload.
+     *
+     * @throws GuacamoleException
+     *     If the signature cannot be generated.
+     */
+    private String sign(String payload) throws GuacamoleException {
+        return encoder.encodeToString(getMac().doFinal(payload.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Returns the group segment of a ticket containing the given groups. The
+     * groups are embedded within the segment as compressed JSON.
+     *
+     * @param groups
+     *     The groups to embed.
+     *
+     * @return
+     *     The group segment of a ticket containing the given groups.
+     *
+     * @throws GuacamoleException
+     *     If the groups cannot be serialized.
+     */
+    private String embed(Set<String> groups) throws GuacamoleException {
+
+        try {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            try (DeflaterOutputStream out = new DeflaterOutputStream(compressed,
+                    new Deflater(Deflater.BEST_COMPRESSION, true))) {
+                mapper.writeValue(out, groups);
+            }
+            return EMBEDDED_GROUPS + encoder.encodeToString(compressed.toByteArray());
+        }
+        catch (IOException e) {
+            throw new GuacamoleServerException("Unable to serialize groups.", e);
+        }
+
+    }
+
+    /**
+     * Returns the groups embedded within the given group segment.
+     *
+     * @param segment
+     *     The group segment of a ticket, without its prefix.
+     *
+     * @return
+     *     The groups embedded within the given group segment.
+     *
+     * @throws IOException
+     *     If the group segment is malformed.
+     */
+    private Set<String> extract(String segment) throws IOException {
+        try (InputStream in = new InflaterInputStream(
+                new ByteArrayInputStream(decoder.decode(segment)),
+                new Inflater(true))) {
+            return mapper.readValue(in, new TypeReference<HashSet<String>>() {});
+        }
+    }
+
+    /**
+     * Issues a new re-authentication ticket for the given user. The user's
+     * groups are embedded within the ticket, such that the ticket may be
+     * verified by any instance sharing the same signing secret, including
+     * after a restart. If the groups are too large to fit within a cookie,
+     * the ticket instead contains only a digest of those groups, and may only
+     * be verified by this instance.
+     *
+     * @param userInfo
+     *     The user that was successfully authenticated by the OAuth2
+     *     provider.
+     *
+     * @return
+     *     A new, signed re-authentication ticket.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed, or the ticket cannot be
+     *     signed.
+     */
+    public String issue(OAuth2UserInfo userInfo) throws GuacamoleException {
+
+        Set<String> groups = userInfo.getGroups() != null
+                ? userInfo.getGroups() : Collections.<String>emptySet();
+
+        long expires = System.currentTimeMillis() + getValiditySeconds() * 1000L;
+        String id = new BigInteger(130, random).toString(32);
+        String username = encoder.encodeToString(userInfo.getUsername().getBytes(StandardCharsets.UTF_8));
+
+        String payload = id + "." + username + "." + embed(groups)
+                + "." + Long.toString(expires, 36);
+        String ticket = payload + "." + sign(payload);
+        if (ticket.length() <= MAX_TICKET_LENGTH)
+            return ticket;
+
+        // Fall back to retaining groups locally for as long as the new
+        // ticket is valid
+        String groupDigest = digest(groups);
+        groupsByDigest.put(groupDigest,
+                Collections.unmodifiableSet(new HashSet<>(groups)), expires);
+
+        payload = id + "." + username + "." + DIGESTED_GROUPS + groupDigest
+                + "." + Long.toString(expires, 36);
+        return payload + "." + sign(payload);
+
+    }
+
+    /**
+     * Splits the given ticket into its identifier, username, group digest,
+     * expiration timestamp and signature, verifying the signature.
+     *
+     * @param ticket
+     *     The ticket to split.
+     *
+     * @return
+     *     The five segments of the ticket, or null if the ticket is malformed
+     *     or its signature is invalid.
+     *
+     * @throws GuacamoleException
+     *     If the signature cannot be generated.
+     */
+    private String[] parse(String ticket) throws GuacamoleException {
+
+        String[] segments = ticket.split("\\.", -1);
+        if (segments.length != 5)
+            return null;
+
+        String payload = ticket.substring(0, ticket.lastIndexOf('.'));
+        byte[] expected = sign(payload).getBytes(StandardCharsets.UTF_8);
+        byte[] actual = segments[4].getBytes(StandardCharsets.UTF_8);
+        if (!MessageDigest.isEqual(expected, actual))
+            return null;
+
+        return segments;
+
+    }
+
+    /**
+     * Verifies the given re-authentication ticket, returning the user that
+     * it identifies. A ticket is valid only if its signature is correct, it
+     * has not expired, and it has not been revoked. Tickets containing only a
+     * digest of the user's groups are additionally valid only if those
+     * groups are still known to this instance of the TicketService.
+     *
+     * @param ticket
+     *     The ticket to verify.
+     *
+     * @return
+     *     The user identified by the given ticket, or null if the ticket is
+     *     not valid.
+     *
+     * @throws GuacamoleException
+     *     If the ticket signature cannot be verified.
+     */
+    public OAuth2UserInfo verify(String ticket) throws GuacamoleException {
+
+        String[] segments = parse(ticket);
+        if (segments == null || segments[2].isEmpty())
+            return null;
+
+        try {
+
+            // Reject expired and revoked tickets
+            long expires = Long.parseLong(segments[3], 36);
+            if (expires <= System.currentTimeMillis() || revoked.containsKey(segments[0]))
+                return null;
+
+            // Read groups from the ticket itself, if possible
+            Set<String> groups;
+            String groupSegment = segments[2].substring(1);
+            if (segments[2].charAt(0) == EMBEDDED_GROUPS)
+                groups = extract(groupSegment);
+
+            // Otherwise, groups are known only for tickets issued by this
+            // instance
+            else {
+                Set<String> cached = groupsByDigest.get(groupSegment);
+                if (cached == null)
+                    return null;
+                groups = new HashSet<>(cached);
+            }
+
+            String username = new String(decoder.decode(segments[1]), StandardCharsets.UTF_8);
+            return new OAuth2UserInfo(username, groups);
+
+        }
+        catch (IOException | IllegalArgumentException e) {
+            return null;
+        }
+
+    }
+
+    /**
+     * Revokes the given re-authentication ticket, such that it is no longer
+     * valid even if it has not yet expired. Invalid tickets are ignored.
+     *
+     * @param ticket
+     *     The ticket to revoke.
+     *
+     * @throws GuacamoleException
+     *     If the ticket signature cannot be verified.
+     */
+    public void revoke(String ticket) throws GuacamoleException {
+
+        String[] segments = parse(ticket);
+        if (segments == null)
+            return;
+
+        try {
+            revoked.put(segments[0], Boolean.TRUE, Long.parseLong(segments[3], 36));
+        }
+        catch (NumberFormatException e) {
+            // Malformed tickets cannot be valid and need not be revoked
+        }
+
+    }
+
+}
@@ -26,9 +26,11 @@ import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.URI;
 import java.net.URL;
+import java.net.URLEncoder;
 import java.util.HashSet;
 import java.util.Set;
 
+import org.apache.guacamole.auth.oauth2.conf.ClientAuthMethod;
 import org.apache.guacamole.auth.oauth2.conf.ConfigurationService;
 import org.apache.guacamole.auth.oauth2.OAuth2UserInfo;
 import org.slf4j.Logger;
@@ -52,12 +54,30 @@ public class TokenValidationService {
     @Inject
     private ConfigurationService confService;
 
+    /**
+     * Service for resolving OAuth2 provider hostnames.
+     */
+    @Inject
+    private HostResolverService resolverService;
+
     /**
      * Service for validating and generating unique OAuth2 state values.
      */
     @Inject
     private StateService stateService;
 
+    /**
+     * Service for generating private_key_jwt client assertions.
+     */
+    @Inject
+    private ClientAssertionService assertionService;
+
+    /**
+     * Service for retrieving group memberships from the groups endpoint.
+     */
+    @Inject
+    private GroupMembershipService groupService;
+
     /**
      * Retrieves user information from the OAuth2 provider using the given
      * access token.
@@ -72,42 +92,59 @@ public class TokenValidationService {
         URI userInfoUri = confService.getUserInfoEndpoint();
         URL url = userInfoUri.toURL();
 
-        // Open an HTTP GET request with Authorization header
-        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-        connection.setRequestMethod("GET");
-        connection.setRequestProperty("Authorization", "Bearer " + accessToken);
-        connection.setRequestProperty("Accept", "application/json");
-
-        // Check response status
-        int responseCode = connection.getResponseCode();
-        if (responseCode != 200) {
-            throw new Exception("Failed to retrieve user info. HTTP " + responseCode);
-        }
+        // Begin retrieving groups from the groups endpoint (if any), such that
+        // the first page is requested alongside the user info
+        GroupMembershipService.GroupRetrieval groupRetrieval =
+                groupService.isEnabled() ? groupService.fetch(accessToken) : null;
+
+        try {
+            // Open an HTTP GET request with Authorization header
+            HttpURLConnection connection = resolverService.openConnection(url);
+            connection.setRequestMethod("GET");
+            connection.setRequestProperty("Authorization", "Bearer " + accessToken);
+            connection.setRequestProperty("Accept", "application/json");
+
+            // Check response status
+            int responseCode = connection.getResponseCode();
+            if (responseCode != 200) {
+                throw new Exception("Failed to retrieve user info. HTTP " + responseCode);
+            }
 
-        // Parse the response JSON
-        InputStream responseStream = connection.getInputStream();
-        ObjectMapper mapper = new ObjectMapper();
-        JsonNode json = mapper.readTree(responseStream);
+            // Parse the response JSON
+            InputStream responseStream = connection.getInputStream();
+            ObjectMapper mapper = new ObjectMapper();
+            JsonNode json = mapper.readTree(responseStream);
 
-        // Extract username using configured claim name
-        String usernameClaim = confService.getUsernameClaimType();
-        JsonNode usernameNode = json.get(usernameClaim);
-        if (usernameNode == null || usernameNode.isNull()) {
-            throw new Exception("Username claim '" + usernameClaim + "' not found in user info response.");
-        }
-        String username = usernameNode.asText();
-
-        // Extract groups using configured claim name (if any)
-        Set<String> groups = new HashSet<>();
-        String groupsClaim = confService.getGroupsClaimType();
-        JsonNode groupsNode = json.get(groupsClaim);
-        if (groupsNode != null && groupsNode.isArray()) {
-            for (JsonNode group : groupsNode) {
-                groups.add(group.asText());
+            // Extract username using configured claim name
+            String usernameClaim = confService.getUsernameClaimType();
+            JsonNode usernameNode = json.get(usernameClaim);
+            if (usernameNode == null || usernameNode.isNull()) {
+                throw new Exception("Username claim '" + usernameClaim + "' not found in user info response.");
             }
+            String username = usernameNode.asText();
+
+            // Extract groups using configured claim name (if any)
+            Set<String> groups = new HashSet<>();
+            String groupsClaim = confService.getGroupsClaimType();
+            JsonNode groupsNode = json.get(groupsClaim);
+            if (groupsNode != null && groupsNode.isArray()) {
+                for (JsonNode group : groupsNode) {
+                    groups.add(group.asText());
+                }
+            }
+
+            // Add groups from the groups endpoint (if any)
+            if (groupRetrieval != null)
+                groups.addAll(groupService.getGroups(username, groupRetrieval));
+
+            return new OAuth2UserInfo(username, groups);
         }
 
-        return new OAuth2UserInfo(username, groups);
+        // Abandon group retrieval if the user info could not be retrieved
+        finally {
+            if (groupRetrieval != null)
+                groupRetrieval.cancel();
+        }
     }
 
     /**
@@ -126,20 +163,27 @@ public class TokenValidationService {
         URL url = tokenUri.toURL();
 
         // Open a POST connection
-        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        HttpURLConnection connection = resolverService.openConnection(url);
         connection.setRequestMethod("POST");
         connection.setDoOutput(true);
         connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
 
         // Construct the request body with required parameters
-        String body = "grant_type=authorization_code"
-                + "&code=" + authorizationCode
-                + "&redirect_uri=" + confService.getRedirectURI()
-                + "&client_id=" + confService.getClientID()
-                + "&client_secret=" + confService.getClientSecret();
+        StringBuilder body = new StringBuilder("grant_type=authorization_code");
+        appendParameter(body, "code", authorizationCode);
+        appendParameter(body, "redirect_uri", confService.getRedirectURI().toString());
+        appendParameter(body, "client_id", confService.getClientID());
+
+        // Authenticate using either a signed assertion or the client secret
+        if (confService.getClientAuthMethod() == ClientAuthMethod.PRIVATE_KEY_JWT) {
+            appendParameter(body, "client_assertion_type", ClientAssertionService.CLIENT_ASSERTION_TYPE);
+            appendParameter(body, "client_assertion", assertionService.generate());
+        }
+        else
+            appendParameter(body, "client_secret", confService.getClientSecret());
 
         // Send the request body
-        connection.getOutputStream().write(body.getBytes("UTF-8"));
+        connection.getOutputStream().write(body.toString().getBytes("UTF-8"));
 
         // Check response status
         int responseCode = connection.getResponseCode();
@@ -160,4 +204,19 @@ public class TokenValidationService {
         }
     }
 
+    /**
+     * Appends the given parameter to the given form-encoded request body,
+     * encoding the parameter value.
+     *
+     * @param body The form-encoded request body to append to.
+     * @param name The name of the parameter.
+     * @param value The unencoded value of the parameter.
+     * @throws Exception If the value cannot be encoded.
+     */
+    private static void appendParameter(StringBuilder body, String name,
+            String value) throws Exception {
+        body.append('&').append(name).append('=')
+                .append(URLEncoder.encode(value, "UTF-8"));
+    }
+
 }
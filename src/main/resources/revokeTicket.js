@@ -0,0 +1,41 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ * Upon explicit logout, revoke any OAuth2 re-authentication ticket and clear
+ * the HttpOnly cookie containing that ticket, such that the user is not
+ * silently signed back in by the next authentication attempt. Tickets are
+ * deliberately not revoked when a session merely expires, as returning after
+ * an expired session is exactly the case tickets exist for. Clearing the
+ * cookie additionally covers other Guacamole instances sharing the same
+ * secret, which do not share this instance's revocations.
+ */
+angular.module('index').run(['$injector', function guacOAuth2RevokeTicket($injector) {
+
+    var $http      = $injector.get('$http');
+    var $rootScope = $injector.get('$rootScope');
+
+    $rootScope.$on('guacLogout', function revokeTicket() {
+        $http({
+            method : 'DELETE',
+            url    : 'api/ext/oauth2/ticket'
+        });
+    });
+
+}]);
@@ -0,0 +1,184 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.auth.oauth2;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.HashSet;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.auth.oauth2.conf.ConfigurationService;
+import org.apache.guacamole.auth.oauth2.token.TicketService;
+import org.apache.guacamole.auth.sso.user.SSOAuthenticatedUser;
+import org.apache.guacamole.net.auth.AbstractAuthenticationProvider;
+import org.apache.guacamole.net.auth.AuthenticationProvider;
+import org.apache.guacamole.net.auth.Credentials;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests the lifecycle of re-authentication tickets presented to
+ * AuthenticationProviderService across session expiry and logout.
+ */
+public class AuthenticationProviderServiceTest {
+
+    /**
+     * Configuration with re-authentication tickets enabled.
+     */
+    private final ConfigurationService confService = new ConfigurationService() {
+
+        @Override
+        public int getTicketValidity() {
+            return 15;
+        }
+
+        @Override
+        public String getTicketSecret() {
+            return "0123456789abcdef0123456789abcdef";
+        }
+
+    };
+
+    /**
+     * The service under test.
+     */
+    private AuthenticationProviderService authService;
+
+    /**
+     * The service issuing and revoking tickets for the service under test.
+     */
+    private TicketService ticketService;
+
+    /**
+     * A ticket issued to the test user.
+     */
+    private String ticket;
+
+    /**
+     * Creates the service under test and issues a ticket to the test user.
+     *
+     * @throws GuacamoleException
+     *     If the ticket cannot be issued.
+     */
+    @Before
+    public void setUp() throws GuacamoleException {
+
+        Injector injector = Guice.createInjector(binder -> {
+            binder.bind(ConfigurationService.class).toProvider(() -> confService);
+            binder.bind(AuthenticationProvider.class).toInstance(new AbstractAuthenticationProvider() {
+
+                @Override
+                public String getIdentifier() {
+                    return "oauth2";
+                }
+
+            });
+        });
+
+        authService = injector.getInstance(AuthenticationProviderService.class);
+        ticketService = injector.getInstance(TicketService.class);
+        ticket = ticketService.issue(new OAuth2UserInfo("alice",
+                new HashSet<>(Arrays.asList("admins", "ops"))));
+
+    }
+
+    /**
+     * Returns Credentials for a request which carries the given ticket
+     * within its cookie, as when a returning user is redirected to Guacamole.
+     *
+     * @param ticket
+     *     The ticket to include within the request.
+     *
+     * @return
+     *     Credentials for a request carrying the given ticket.
+     */
+    private Credentials getCredentials(final String ticket) {
+
+        HttpServletRequest request = (HttpServletRequest) Proxy.newProxyInstance(
+                HttpServletRequest.class.getClassLoader(),
+                new Class<?>[] { HttpServletRequest.class },
+                (proxy, method, args) -> {
+
+                    if (method.getName().equals("getCookies"))
+                        return new Cookie[] { new Cookie(TicketService.TICKET_COOKIE_NAME, ticket) };
+
+                    // No other request details are relevant
+                    Class<?> type = method.getReturnType();
+                    if (type == boolean.class)
+                        return false;
+                    if (type == int.class)
+                        return 0;
+                    if (type == long.class)
+                        return 0L;
+                    return null;
+
+                });
+
+        return new Credentials(null, null, request);
+
+    }
+
+    /**
+     * Verifies that a ticket remains valid after the session it
+     * authenticated expires, such that the user may sign back in without
+     * contacting the OAuth2 provider.
+     *
+     * @throws GuacamoleException
+     *     If authentication fails.
+     */
+    @Test
+    public void testTicketSurvivesSessionExpiry() throws GuacamoleException {
+
+        SSOAuthenticatedUser user = authService.authenticateUser(getCredentials(ticket));
+        assertEquals("alice", user.getIdentifier());
+
+        // Guacamole invalidates the user when the session times out
+        user.invalidate();
+
+        assertNotNull(ticketService.verify(ticket));
+        assertEquals("alice", authService.authenticateUser(getCredentials(ticket)).getIdentifier());
+
+    }
+
+    /**
+     * Verifies that a ticket revoked upon logout is no longer valid, even
+     * though it has not yet expired.
+     *
+     * @throws GuacamoleException
+     *     If authentication fails or the ticket cannot be revoked.
+     */
+    @Test
+    public void testLogoutRevokesTicket() throws GuacamoleException {
+
+        authService.authenticateUser(getCredentials(ticket));
+
+        // Logout revokes the ticket through the ticket endpoint
+        ticketService.revoke(ticket);
+        assertNull(ticketService.verify(ticket));
+
+    }
+
+}
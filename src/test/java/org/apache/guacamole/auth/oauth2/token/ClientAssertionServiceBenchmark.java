@@ -0,0 +1,180 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.auth.oauth2.token;
+
+import com.google.inject.Guice;
+import java.io.File;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.util.concurrent.TimeUnit;
+import org.apache.guacamole.auth.oauth2.conf.ConfigurationService;
+import org.jose4j.jwk.EcJwkGenerator;
+import org.jose4j.jwk.JsonWebKey;
+import org.jose4j.jwk.PublicJsonWebKey;
+import org.jose4j.jwk.RsaJwkGenerator;
+import org.jose4j.keys.EllipticCurves;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the per-login cost of generating a private_key_jwt client
+ * assertion once the signing state has been prepared, alongside the cost of
+ * the bare signature operation as a baseline.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClientAssertionServiceBenchmark {
+
+    /**
+     * The JWS algorithm of the generated signing key.
+     */
+    @Param({ "RS256", "ES256" })
+    public String algorithm;
+
+    /**
+     * The generated signing key.
+     */
+    private PrivateKey privateKey;
+
+    /**
+     * Input of the same length as a typical assertion, for the signature
+     * baseline.
+     */
+    private final byte[] signingInput = new byte[320];
+
+    /**
+     * Temporary file containing the generated signing key.
+     */
+    private File keyFile;
+
+    /**
+     * The service under test.
+     */
+    private ClientAssertionService assertionService;
+
+    /**
+     * Generates a signing key for the configured algorithm, writes that key
+     * to a temporary JWK file, and prepares the service under test.
+     *
+     * @throws Exception
+     *     If the key cannot be generated or written.
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+
+        PublicJsonWebKey jwk = algorithm.startsWith("ES")
+                ? EcJwkGenerator.generateJwk(EllipticCurves.P256)
+                : RsaJwkGenerator.generateJwk(2048);
+        jwk.setAlgorithm(algorithm);
+        jwk.setKeyId("benchmark");
+        privateKey = jwk.getPrivateKey();
+
+        keyFile = File.createTempFile("oauth2-client", ".jwk");
+        Files.write(keyFile.toPath(), jwk.toJson(JsonWebKey.OutputControlLevel.INCLUDE_PRIVATE)
+                .getBytes(StandardCharsets.UTF_8));
+
+        final ConfigurationService confService = new ConfigurationService() {
+
+            @Override
+            public File getClientPrivateKeyFile() {
+                return keyFile;
+            }
+
+            @Override
+            public String getClientID() {
+                return "guacamole";
+            }
+
+            @Override
+            public URI getTokenEndpoint() {
+                return URI.create("https://oauth2.example.com/oauth/token");
+            }
+
+        };
+
+        assertionService = Guice.createInjector(binder ->
+                binder.bind(ConfigurationService.class).toProvider(() -> confService))
+                .getInstance(ClientAssertionService.class);
+
+        // Prepare signing state outside of measurement
+        assertionService.generate();
+
+    }
+
+    /**
+     * Removes the temporary key file.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        keyFile.delete();
+    }
+
+    /**
+     * Generates a single client assertion.
+     *
+     * @return
+     *     The generated assertion.
+     *
+     * @throws Exception
+     *     If the assertion cannot be generated.
+     */
+    @Benchmark
+    public String generate() throws Exception {
+        return assertionService.generate();
+    }
+
+    /**
+     * Computes a single bare signature using the JCA, without any of the
+     * work of assembling an assertion.
+     *
+     * @return
+     *     The computed signature.
+     *
+     * @throws Exception
+     *     If the signature cannot be computed.
+     */
+    @Benchmark
+    public byte[] signatureBaseline() throws Exception {
+        Signature signature = Signature.getInstance(algorithm.startsWith("ES")
+                ? "SHA256withECDSA" : "SHA256withRSA");
+        signature.initSign(privateKey);
+        signature.update(signingInput);
+        return signature.sign();
+    }
+
+}
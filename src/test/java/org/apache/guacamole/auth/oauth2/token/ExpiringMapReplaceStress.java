@@ -0,0 +1,83 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.auth.oauth2.token;
+
+import org.openjdk.jcstress.annotations.Actor;
+import org.openjdk.jcstress.annotations.Arbiter;
+import org.openjdk.jcstress.annotations.Expect;
+import org.openjdk.jcstress.annotations.JCStressTest;
+import org.openjdk.jcstress.annotations.Outcome;
+import org.openjdk.jcstress.annotations.State;
+import org.openjdk.jcstress.infra.results.Z_Result;
+
+/**
+ * Verifies that a sweep which finds an expired entry never removes a fresh
+ * value stored concurrently under the same key, such as group memberships
+ * re-cached for the same user or groups referenced again by the same digest.
+ */
+@JCStressTest
+@Outcome(id = "true", expect = Expect.ACCEPTABLE,
+        desc = "The fresh value survives the sweep.")
+@Outcome(id = "false", expect = Expect.FORBIDDEN,
+        desc = "The sweep removed the fresh value along with the expired one.")
+@State
+public class ExpiringMapReplaceStress {
+
+    /**
+     * The Map under test, which is eligible for sweeping at any time.
+     */
+    private final ExpiringMap<String, String> map = new ExpiringMap<String, String>(0, 0);
+
+    /**
+     * Stores an already-expired value under the key that the actors race
+     * to replace and sweep.
+     */
+    public ExpiringMapReplaceStress() {
+        map.put("key", "expired", 0);
+    }
+
+    /**
+     * Replaces the expired value with a fresh value.
+     */
+    @Actor
+    public void replace() {
+        map.put("key", "fresh", Long.MAX_VALUE);
+    }
+
+    /**
+     * Sweeps expired entries concurrently with the replacement.
+     */
+    @Actor
+    public void sweep() {
+        map.sweep();
+    }
+
+    /**
+     * Reads the key once both actors have completed.
+     *
+     * @param result
+     *     The result to record the outcome within.
+     */
+    @Arbiter
+    public void read(Z_Result result) {
+        result.r1 = map.get("key") != null;
+    }
+
+}
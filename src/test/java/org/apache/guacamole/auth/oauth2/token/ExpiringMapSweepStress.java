@@ -0,0 +1,71 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.auth.oauth2.token;
+
+import org.openjdk.jcstress.annotations.Actor;
+import org.openjdk.jcstress.annotations.Expect;
+import org.openjdk.jcstress.annotations.JCStressTest;
+import org.openjdk.jcstress.annotations.Outcome;
+import org.openjdk.jcstress.annotations.State;
+import org.openjdk.jcstress.infra.results.ZZ_Result;
+
+/**
+ * Verifies that, once a sweep becomes due, exactly one of several
+ * concurrent callers claims and performs that sweep.
+ */
+@JCStressTest
+@Outcome(id = { "true, false", "false, true" }, expect = Expect.ACCEPTABLE,
+        desc = "Exactly one caller performs the sweep.")
+@Outcome(id = "true, true", expect = Expect.FORBIDDEN,
+        desc = "The Map was swept twice within the sweep interval.")
+@Outcome(id = "false, false", expect = Expect.FORBIDDEN,
+        desc = "A due sweep was not performed.")
+@State
+public class ExpiringMapSweepStress {
+
+    /**
+     * The Map under test, whose next sweep is already due.
+     */
+    private final ExpiringMap<String, Boolean> map =
+            new ExpiringMap<String, Boolean>(60000, 0);
+
+    /**
+     * Attempts to sweep from the first thread.
+     *
+     * @param result
+     *     The result to record the outcome within.
+     */
+    @Actor
+    public void first(ZZ_Result result) {
+        result.r1 = map.sweep();
+    }
+
+    /**
+     * Attempts to sweep from the second thread.
+     *
+     * @param result
+     *     The result to record the outcome within.
+     */
+    @Actor
+    public void second(ZZ_Result result) {
+        result.r2 = map.sweep();
+    }
+
+}
@@ -0,0 +1,150 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.auth.oauth2.token;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import java.util.Arrays;
+import java.util.HashSet;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.auth.oauth2.OAuth2UserInfo;
+import org.apache.guacamole.auth.oauth2.conf.ConfigurationService;
+import org.openjdk.jcstress.annotations.Actor;
+import org.openjdk.jcstress.annotations.Arbiter;
+import org.openjdk.jcstress.annotations.Expect;
+import org.openjdk.jcstress.annotations.JCStressTest;
+import org.openjdk.jcstress.annotations.Outcome;
+import org.openjdk.jcstress.annotations.State;
+import org.openjdk.jcstress.infra.results.ZZ_Result;
+
+/**
+ * Verifies that a ticket revoked upon logout is never accepted afterwards,
+ * even if the same ticket is verified concurrently with its revocation.
+ */
+@JCStressTest
+@Outcome(id = { "true, false", "false, false" }, expect = Expect.ACCEPTABLE,
+        desc = "The concurrent verification may go either way, but the "
+                + "ticket is rejected once revoked.")
+@Outcome(id = { "true, true", "false, true" }, expect = Expect.FORBIDDEN,
+        desc = "The ticket was accepted after its revocation completed.")
+@State
+public class TicketServiceRevokeStress {
+
+    /**
+     * Configuration with tickets enabled and a randomly-generated signing
+     * key.
+     */
+    private static final ConfigurationService CONFIGURATION = new ConfigurationService() {
+
+        @Override
+        public int getTicketValidity() {
+            return 5;
+        }
+
+        @Override
+        public String getTicketSecret() {
+            return null;
+        }
+
+    };
+
+    /**
+     * Injector providing the above configuration.
+     */
+    private static final Injector INJECTOR = Guice.createInjector(binder ->
+            binder.bind(ConfigurationService.class).toProvider(() -> CONFIGURATION));
+
+    /**
+     * The service under test.
+     */
+    private final TicketService ticketService = new TicketService();
+
+    /**
+     * A freshly-issued, unexpired ticket.
+     */
+    private final String ticket;
+
+    /**
+     * Configures the service under test and issues the ticket which the
+     * actors race to verify and revoke.
+     */
+    public TicketServiceRevokeStress() {
+        INJECTOR.injectMembers(ticketService);
+        try {
+            ticket = ticketService.issue(new OAuth2UserInfo("alice",
+                    new HashSet<>(Arrays.asList("admins", "ops"))));
+        }
+        catch (GuacamoleException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns whether the ticket is currently accepted by the service under
+     * test.
+     *
+     * @return
+     *     true if the ticket is accepted, false otherwise.
+     */
+    private boolean isAccepted() {
+        try {
+            return ticketService.verify(ticket) != null;
+        }
+        catch (GuacamoleException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Revokes the ticket, as upon logout.
+     */
+    @Actor
+    public void revoke() {
+        try {
+            ticketService.revoke(ticket);
+        }
+        catch (GuacamoleException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Verifies the ticket concurrently with its revocation.
+     *
+     * @param result
+     *     The result to record the outcome within.
+     */
+    @Actor
+    public void verify(ZZ_Result result) {
+        result.r1 = isAccepted();
+    }
+
+    /**
+     * Verifies the ticket once its revocation has completed.
+     *
+     * @param result
+     *     The result to record the outcome within.
+     */
+    @Arbiter
+    public void verifyAfterRevoke(ZZ_Result result) {
+        result.r2 = isAccepted();
+    }
+
+}